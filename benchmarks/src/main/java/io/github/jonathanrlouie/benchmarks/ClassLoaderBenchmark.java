@@ -0,0 +1,126 @@
+package io.github.jonathanrlouie.benchmarks;
+
+import io.github.jonathanrlouie.BuildMetrics;
+import io.github.jonathanrlouie.ClassLoaderCache;
+import io.github.jonathanrlouie.ClassLoaderUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building class loaders for large classpaths with
+ * {@link ClassLoaderUtils} and looking up classes through them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassLoaderBenchmark {
+    /**
+     * Number of JAR files on the classpath.
+     */
+    @Param({"10", "100", "500"})
+    private int jarCount;
+
+    /**
+     * Directory standing in for idris.home.
+     */
+    private File idrisHome;
+
+    /**
+     * The generated JAR files in classpath order.
+     */
+    private List<File> classpath;
+
+    /**
+     * Generates the classpath.
+     * @throws IOException if the JAR files could not be written.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.idrisHome = Files.createTempDirectory("idris-home").toFile();
+        Fixtures.writeJars(this.idrisHome, this.jarCount);
+        this.classpath = ClassLoaderUtils.getLocalCompilerClasspath(
+            this.idrisHome.getPath(), new BuildMetrics("benchmark"));
+    }
+
+    /**
+     * Deletes the classpath.
+     * @throws IOException if the JAR files could not be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(this.idrisHome);
+    }
+
+    /**
+     * Lists idris.home and gets its class loader, as the compile goal does
+     * for every compile. Hits the class loader cache after the first call.
+     * @return The class loader, so it is not optimised away.
+     */
+    @Benchmark
+    public ClassLoader cachedCompilerClassLoader() {
+        ClassLoader loader = ClassLoaderUtils.getLocalCompilerClassLoader(
+            this.idrisHome.getPath(), new BuildMetrics("benchmark"));
+        ClassLoaderCache.release(loader);
+        return loader;
+    }
+
+    /**
+     * Builds a fresh class loader and loads a class from the last JAR,
+     * which is what a cold compiler start pays.
+     * @return The loaded class.
+     * @throws Exception if the class could not be loaded.
+     */
+    @Benchmark
+    public Class<?> coldLoadFromLastJar() throws Exception {
+        try (URLClassLoader loader = newLoader()) {
+            return loader.loadClass(Fixtures.LAST_CLASS);
+        }
+    }
+
+    /**
+     * Looks up a resource that is in none of the JAR files through a warm
+     * class loader, which has to search every JAR on the classpath.
+     * @return The missing resource.
+     * @throws Exception if the class loader could not be built.
+     */
+    @Benchmark
+    public URL missingResourceLookup() throws Exception {
+        ClassLoader loader = ClassLoaderCache.get(this.classpath);
+        try {
+            return loader.getResource("does/not/Exist.class");
+        } finally {
+            ClassLoaderCache.release(loader);
+        }
+    }
+
+    private URLClassLoader newLoader() throws IOException {
+        URL[] urls = new URL[this.classpath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = this.classpath.get(i).toURI().toURL();
+        }
+        return new URLClassLoader(urls, null);
+    }
+}
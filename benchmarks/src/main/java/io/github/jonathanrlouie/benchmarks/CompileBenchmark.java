@@ -0,0 +1,123 @@
+package io.github.jonathanrlouie.benchmarks;
+
+import io.github.jonathanrlouie.BuildMetrics;
+import io.github.jonathanrlouie.ClassLoaderCache;
+import io.github.jonathanrlouie.ClassLoaderUtils;
+import io.github.jonathanrlouie.JavaCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compiles the hello-world example end to end with a local Idris
+ * installation, given by the idris.home system property. The example is
+ * looked up relative to the idris.examples system property, defaulting to
+ * the repository's examples directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xss8m")
+public class CompileBenchmark {
+    /**
+     * Path to a local installation of the idris-jvm-compiler.
+     */
+    private String idrisHome;
+
+    /**
+     * The hello-world example's main file.
+     */
+    private File mainFile;
+
+    /**
+     * Directory the compiler writes to.
+     */
+    private File outputDir;
+
+    /**
+     * Directory the compiler keeps checked modules in, as the compile
+     * goal's build directory.
+     */
+    private File buildDir;
+
+    /**
+     * Checks the Idris installation and example are available.
+     * @throws IOException if the output or build directory could not be
+     * created.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.idrisHome = System.getProperty("idris.home");
+        if (this.idrisHome == null) {
+            throw new IllegalStateException(
+                "Set -Didris.home to a local idris-jvm installation");
+        }
+        this.mainFile = new File(
+            System.getProperty("idris.examples", "../examples"),
+            "hello-world/src/main/idris/example/App.idr");
+        if (!this.mainFile.isFile()) {
+            throw new IllegalStateException(
+                "Example not found at " + this.mainFile.getAbsolutePath());
+        }
+        this.outputDir = Files.createTempDirectory("idris-out").toFile();
+        this.buildDir = Files.createTempDirectory("idris-build").toFile();
+    }
+
+    /**
+     * Deletes the compiler output and build directory.
+     * @throws IOException if the output could not be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(this.outputDir);
+        Fixtures.delete(this.buildDir);
+    }
+
+    /**
+     * Compiles hello-world in-process, as the compile goal does.
+     * @throws Exception if compilation failed.
+     */
+    @Benchmark
+    public void compileHelloWorld() throws Exception {
+        JavaCommand cmd = new JavaCommand();
+        cmd.addOption("-o", "main");
+        cmd.addOption("--output-dir", this.outputDir.getAbsolutePath());
+        cmd.addOption("--build-dir", this.buildDir.getAbsolutePath());
+        cmd.addArgs(this.mainFile.getAbsolutePath());
+        ClassLoader cl = ClassLoaderUtils.getLocalCompilerClassLoader(
+            this.idrisHome, new BuildMetrics("benchmark"));
+        int exitCode;
+        boolean finished = false;
+        try {
+            exitCode = cmd.runIsolated("idris2.Main", cl, new NoopLog());
+            finished = true;
+        } finally {
+            if (finished) {
+                ClassLoaderCache.release(cl);
+            } else {
+                ClassLoaderCache.discard(cl);
+            }
+        }
+        if (exitCode != 0) {
+            throw new IllegalStateException(
+                "Idris compiler exited with code " + exitCode);
+        }
+    }
+}
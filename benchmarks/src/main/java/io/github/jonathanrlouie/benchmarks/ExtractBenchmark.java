@@ -0,0 +1,92 @@
+package io.github.jonathanrlouie.benchmarks;
+
+import io.github.jonathanrlouie.BaseLibExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures unzipping the compiler base libraries with
+ * {@link BaseLibExtractor}, both the first time and when already unzipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExtractBenchmark {
+    /**
+     * Number of files in the base library zip.
+     */
+    @Param({"3000"})
+    private int entryCount;
+
+    /**
+     * Directory standing in for the compiler's local repository directory.
+     */
+    private File repositoryDir;
+
+    /**
+     * The base library zip.
+     */
+    private File zip;
+
+    /**
+     * Generates the base library zip.
+     * @throws IOException if the zip could not be written.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.repositoryDir = Files.createTempDirectory("idris-repo").toFile();
+        this.zip = new File(this.repositoryDir, "idris-jvm-compiler-0.5.1.zip");
+        Fixtures.writeBaseLibZip(this.zip, this.entryCount);
+    }
+
+    /**
+     * Deletes the base library zip and everything unzipped from it.
+     * @throws IOException if the files could not be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.delete(this.repositoryDir);
+    }
+
+    /**
+     * Unzips into an empty directory, as the first build does.
+     * @return Whether the zip was extracted.
+     * @throws IOException if the zip could not be extracted.
+     */
+    @Benchmark
+    public boolean coldExtract() throws IOException {
+        BaseLibExtractor.markerFile(this.zip).delete();
+        Fixtures.delete(new File(this.repositoryDir, "idris2-0.5.1"));
+        return BaseLibExtractor.extract(this.zip);
+    }
+
+    /**
+     * Checks an already unzipped zip, as every later build does.
+     * @return Whether the zip was extracted.
+     * @throws IOException if the zip could not be extracted.
+     */
+    @Benchmark
+    public boolean warmExtract() throws IOException {
+        return BaseLibExtractor.extract(this.zip);
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.jonathanrlouie.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the JAR files, zips and classes the benchmarks run against.
+ */
+final class Fixtures {
+    private Fixtures() { }
+
+    /**
+     * Name of the class that is only present in the last generated JAR.
+     * It is a copy of {@link NoopMain} in a package of the same length.
+     */
+    static final String LAST_CLASS = "zz.github.jonathanrlouie.benchmarks.NoopMain";
+
+    /**
+     * Writes a number of JAR files, each holding a few small entries in a
+     * package of its own. The last JAR also holds {@link #LAST_CLASS}.
+     * @param dir Directory to write the JAR files to.
+     * @param count Number of JAR files to write.
+     * @throws IOException if the JAR files could not be written.
+     */
+    static void writeJars(final File dir, final int count) throws IOException {
+        byte[] noopMain = classBytes(NoopMain.class);
+        for (int i = 0; i < count; i++) {
+            File jar = new File(dir, String.format("dep-%04d.jar", i));
+            try (OutputStream file = Files.newOutputStream(jar.toPath());
+                JarOutputStream out = new JarOutputStream(file)) {
+                for (int j = 0; j < 10; j++) {
+                    out.putNextEntry(new JarEntry(
+                        "fixture/p" + i + "/Resource" + j + ".txt"));
+                    out.write(("resource " + j)
+                        .getBytes(StandardCharsets.UTF_8));
+                    out.closeEntry();
+                }
+                if (i == count - 1) {
+                    out.putNextEntry(new JarEntry(
+                        LAST_CLASS.replace('.', '/') + ".class"));
+                    out.write(relocate(noopMain));
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a zip shaped like the idris-jvm-compiler base library zip.
+     * @param zip Zip file to write.
+     * @param count Number of files in the zip.
+     * @throws IOException if the zip could not be written.
+     */
+    static void writeBaseLibZip(final File zip, final int count)
+        throws IOException {
+        byte[] contents = new byte[2048];
+        try (OutputStream file = Files.newOutputStream(zip.toPath());
+            ZipOutputStream out = new ZipOutputStream(file)) {
+            for (int i = 0; i < count; i++) {
+                out.putNextEntry(new ZipEntry("idris2-0.5.1/lib/base/Module"
+                    + (i / 100) + "/File" + i + ".ttc"));
+                out.write(contents);
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory and everything below it.
+     * @param dir Directory to delete.
+     * @throws IOException if something could not be deleted.
+     */
+    static void delete(final File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Path p : (Iterable<Path>) paths
+                .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    private static byte[] classBytes(final Class<?> c) throws IOException {
+        String resource = "/" + c.getName().replace('.', '/') + ".class";
+        try (InputStream in = c.getResourceAsStream(resource)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Renames {@link NoopMain} to {@link #LAST_CLASS} in its class file.
+     * Both names have the same length, so the constant pool strings can
+     * be replaced in place.
+     */
+    private static byte[] relocate(final byte[] bytes) {
+        byte[] from = NoopMain.class.getName().replace('.', '/')
+            .getBytes(StandardCharsets.UTF_8);
+        byte[] to = LAST_CLASS.replace('.', '/')
+            .getBytes(StandardCharsets.UTF_8);
+        if (from.length != to.length) {
+            throw new IllegalStateException("Class names must match in length");
+        }
+        byte[] result = bytes.clone();
+        for (int i = 0; i + from.length <= result.length; i++) {
+            boolean match = true;
+            for (int j = 0; j < from.length && match; j++) {
+                match = result[i + j] == from[j];
+            }
+            if (match) {
+                System.arraycopy(to, 0, result, i, to.length);
+            }
+        }
+        return result;
+    }
+}
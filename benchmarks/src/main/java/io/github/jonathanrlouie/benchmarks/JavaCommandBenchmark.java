@@ -0,0 +1,53 @@
+package io.github.jonathanrlouie.benchmarks;
+
+import io.github.jonathanrlouie.JavaCommand;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead {@link JavaCommand#run} adds to invoking a main
+ * method reflectively.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JavaCommandBenchmark {
+    /**
+     * Log that discards everything.
+     */
+    private final Log log = new NoopLog();
+
+    /**
+     * Runs a main method that does nothing.
+     * @throws Exception if the main method could not be run.
+     */
+    @Benchmark
+    public void runNoopMain() throws Exception {
+        JavaCommand cmd = new JavaCommand();
+        cmd.addOption("-o", "main");
+        cmd.run(NoopMain.class.getName(),
+            JavaCommandBenchmark.class.getClassLoader(), this.log);
+    }
+
+    /**
+     * Calls the same main method directly, as a baseline.
+     */
+    @Benchmark
+    public void directNoopMain() {
+        NoopMain.main(new String[] {"-o", "main"});
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.jonathanrlouie.benchmarks;
+
+/**
+ * Main class that does nothing, to measure dispatch overhead alone.
+ */
+public final class NoopMain {
+    private NoopMain() { }
+
+    /**
+     * Does nothing.
+     * @param args Ignored.
+     */
+    public static void main(final String[] args) { }
+}
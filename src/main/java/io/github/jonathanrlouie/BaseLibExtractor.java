@@ -0,0 +1,292 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unzips the Idris base libraries next to the compiler's zip artifact.
+ * Extraction happens at most once per zip: a marker file records the
+ * size, modification time and checksum of the extracted zip, so the zip
+ * is only hashed again when its size or modification time changed. The
+ * contents are unpacked into a
+ * temporary directory and renamed into place so that concurrent builds
+ * sharing a local repository never see a partial extraction. Builds that
+ * need the same zip at once take turns, so it is only unzipped once.
+ */
+public final class BaseLibExtractor {
+    private BaseLibExtractor() { }
+
+    /**
+     * Suffix of the marker file written after a successful extraction.
+     */
+    private static final String MARKER_SUFFIX = ".extracted";
+
+    /**
+     * Gets the marker file recording the extraction of a zip.
+     * @param zip Zip file that is extracted.
+     * @return The marker file next to the zip.
+     */
+    public static File markerFile(final File zip) {
+        return new File(zip.getParentFile(), zip.getName() + MARKER_SUFFIX);
+    }
+
+    /**
+     * Unzips a zip file into its parent directory unless it was already
+     * unzipped there.
+     * @param zip Zip file to extract.
+     * @return Whether the zip had to be extracted.
+     * @throws IOException if the zip could not be extracted.
+     */
+    public static boolean extract(final File zip) throws IOException {
+        File destinationDir = zip.getParentFile();
+        if (isExtracted(zip, null)) {
+            return false;
+        }
+
+        File lockFile = new File(destinationDir, zip.getName() + ".lock");
+        return FileLocks.withLock(lockFile, () -> {
+            // Another build may have extracted it while we waited
+            if (isExtracted(zip, null)) {
+                return false;
+            }
+            String checksum = IdrisSources.sha256(zip);
+            Properties marker = readMarker(zip);
+            if (isExtracted(zip, checksum)) {
+                // Only the modification time changed
+                writeMarker(zip, checksum, new TreeSet<>(Arrays.asList(
+                    marker.getProperty("roots", "").split(","))));
+                return false;
+            }
+            Path tmp = Files.createTempDirectory(
+                destinationDir.toPath(), ".idris-extract-");
+            try {
+                Set<String> roots = unzip(zip, tmp.toFile());
+                for (String root : roots) {
+                    moveIntoPlace(tmp.resolve(root),
+                        destinationDir.toPath().resolve(root));
+                }
+                writeMarker(zip, checksum, roots);
+                return true;
+            } finally {
+                deleteRecursively(tmp);
+            }
+        });
+    }
+
+    /**
+     * Gets the directories that a zip was extracted into.
+     * @param zip Zip file that was extracted.
+     * @return The top-level directories of the zip next to it, or an
+     * empty list if it was not extracted.
+     */
+    public static List<File> roots(final File zip) {
+        List<File> roots = new ArrayList<>();
+        Properties marker = readMarker(zip);
+        if (marker == null) {
+            return roots;
+        }
+        for (String root : marker.getProperty("roots", "").split(",")) {
+            if (!root.isEmpty()) {
+                roots.add(new File(zip.getParentFile(), root));
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Gets the checksum of an extracted zip from its marker file, hashing
+     * the zip only if it changed since it was extracted.
+     * @param zip Zip file that was extracted.
+     * @return SHA-256 checksum of the zip.
+     * @throws IOException if the zip could not be read.
+     */
+    public static String checksum(final File zip) throws IOException {
+        Properties marker = readMarker(zip);
+        if (marker != null && stamp(zip).equals(marker.getProperty("stamp"))) {
+            return marker.getProperty("sha256");
+        }
+        return IdrisSources.sha256(zip);
+    }
+
+    /**
+     * Checks whether the zip's contents are in place, identifying the zip
+     * by its checksum if one is given and otherwise by its size and
+     * modification time.
+     */
+    private static boolean isExtracted(final File zip, final String checksum) {
+        Properties properties = readMarker(zip);
+        if (properties == null) {
+            return false;
+        }
+        if (checksum == null
+            ? !stamp(zip).equals(properties.getProperty("stamp"))
+            : !checksum.equals(properties.getProperty("sha256"))) {
+            return false;
+        }
+        for (String root : properties.getProperty("roots", "").split(",")) {
+            if (!root.isEmpty()
+                && !new File(zip.getParentFile(), root).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Properties readMarker(final File zip) {
+        File marker = markerFile(zip);
+        if (!marker.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(marker.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        return properties;
+    }
+
+    private static String stamp(final File zip) {
+        return zip.length() + ":" + zip.lastModified();
+    }
+
+    private static Set<String> unzip(final File zip, final File destinationDir)
+        throws IOException {
+        String canonicalDestinationDirPath = destinationDir.getCanonicalPath();
+        Set<String> roots = new TreeSet<>();
+        List<ZipEntry> files = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File destinationFile = new File(destinationDir, entry.getName());
+                String canonicalDestinationFile =
+                    destinationFile.getCanonicalPath();
+
+                // This is meant to avoid Zip Slip vulnerability
+                if (!canonicalDestinationFile.startsWith(
+                    canonicalDestinationDirPath + File.separator)) {
+                    throw new IOException(
+                        "Entry is outside of the target dir: "
+                        + entry.getName());
+                }
+
+                roots.add(entry.getName().split("/", 2)[0]);
+                if (entry.isDirectory()) {
+                    destinationFile.mkdirs();
+                } else {
+                    destinationFile.getParentFile().mkdirs();
+                    files.add(entry);
+                }
+            }
+            copyEntries(zipFile, files, destinationDir);
+        }
+        return roots;
+    }
+
+    /**
+     * Copies file entries on a thread per core, since the base libraries
+     * consist of thousands of small files.
+     */
+    private static void copyEntries(
+        final ZipFile zipFile,
+        final List<ZipEntry> entries,
+        final File destinationDir) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> copies = new ArrayList<>();
+            for (ZipEntry entry : entries) {
+                copies.add(executor.submit(() -> {
+                    File destinationFile =
+                        new File(destinationDir, entry.getName());
+                    try (InputStream in = zipFile.getInputStream(entry);
+                        OutputStream out = Files.newOutputStream(
+                            destinationFile.toPath())) {
+                        in.transferTo(out);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while unzipping", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to unzip entry", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void moveIntoPlace(final Path source, final Path target)
+        throws IOException {
+        Path stale = null;
+        if (Files.exists(target)) {
+            // Left behind by an interrupted or older extraction
+            stale = Files.createTempDirectory(
+                target.getParent(), ".idris-stale-");
+            Files.move(target, stale.resolve(target.getFileName()),
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        if (stale != null) {
+            deleteRecursively(stale);
+        }
+    }
+
+    private static void writeMarker(
+        final File zip,
+        final String checksum,
+        final Set<String> roots) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("sha256", checksum);
+        properties.setProperty("stamp", stamp(zip));
+        properties.setProperty("roots", String.join(",", roots));
+        File marker = markerFile(zip);
+        File tmp = new File(marker.getPath() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+            properties.store(out, "Extracted Idris base libraries");
+        }
+        Files.move(tmp.toPath(), marker.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteRecursively(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            Files.deleteIfExists(p);
+        }
+    }
+}
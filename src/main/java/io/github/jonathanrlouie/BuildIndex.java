@@ -0,0 +1,307 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Content hash index of the inputs of an Idris compilation, used to skip
+ * the compiler when nothing relevant has changed since the last build.
+ */
+public final class BuildIndex {
+    /**
+     * Prefix of the keys that store source file checksums.
+     */
+    private static final String SOURCE_PREFIX = "source.";
+
+    /**
+     * Prefix of the keys that store compiler settings.
+     */
+    private static final String SETTING_PREFIX = "setting.";
+
+    /**
+     * Checksums of the indexed source files keyed by absolute path.
+     */
+    private final Map<String, String> sources;
+
+    /**
+     * Compiler version and options keyed by name.
+     */
+    private final Map<String, String> settings;
+
+    /**
+     * Module names of the indexed source files keyed by absolute path.
+     */
+    private final Map<String, String> modules;
+
+    /**
+     * Imported module names of the indexed source files keyed by
+     * absolute path.
+     */
+    private final Map<String, List<String>> imports;
+
+    private BuildIndex(
+        final Map<String, String> sources1,
+        final Map<String, String> settings1,
+        final Map<String, String> modules1,
+        final Map<String, List<String>> imports1) {
+        this.sources = sources1;
+        this.settings = settings1;
+        this.modules = modules1;
+        this.imports = imports1;
+    }
+
+    /**
+     * Indexes the Idris sources below the given roots.
+     * @param roots Source root directories to index.
+     * @param settings Compiler version and options affecting the output.
+     * @return Index of the current sources and settings.
+     */
+    public static BuildIndex scan(
+        final List<File> roots,
+        final Map<String, String> settings) {
+        Map<String, String> sources = new TreeMap<>();
+        Map<String, String> modules = new HashMap<>();
+        Map<String, List<String>> imports = new HashMap<>();
+        for (Map.Entry<File, File> entry
+            : IdrisSources.findSources(roots).entrySet()) {
+            File source = entry.getKey();
+            String path = source.getPath();
+            sources.put(path, IdrisSources.sha256(source));
+            if (!source.getName().endsWith(".ipkg")) {
+                modules.put(path,
+                    IdrisSources.moduleName(entry.getValue(), source));
+                imports.put(path, IdrisSources.imports(source));
+            }
+        }
+        return new BuildIndex(
+            sources, new TreeMap<>(settings), modules, imports);
+    }
+
+    /**
+     * Loads a previously saved index.
+     * @param file File the index was saved to.
+     * @return The saved index, or null if there is none.
+     */
+    public static BuildIndex load(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            // A corrupt index only costs a full rebuild
+            return null;
+        }
+        Map<String, String> sources = new TreeMap<>();
+        Map<String, String> settings = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(SOURCE_PREFIX)) {
+                sources.put(key.substring(SOURCE_PREFIX.length()),
+                    properties.getProperty(key));
+            } else if (key.startsWith(SETTING_PREFIX)) {
+                settings.put(key.substring(SETTING_PREFIX.length()),
+                    properties.getProperty(key));
+            }
+        }
+        return new BuildIndex(sources, settings,
+            Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Saves this index so that the next build can compare against it.
+     * @param file File to save the index to.
+     * @throws IOException if the index could not be written.
+     */
+    public void save(final File file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> e : this.sources.entrySet()) {
+            properties.setProperty(SOURCE_PREFIX + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : this.settings.entrySet()) {
+            properties.setProperty(SETTING_PREFIX + e.getKey(), e.getValue());
+        }
+        file.getParentFile().mkdirs();
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            properties.store(out, "Idris build index");
+        }
+    }
+
+    /**
+     * Gets the number of Idris modules in this index.
+     * @return Number of indexed Idris modules.
+     */
+    public int getModuleCount() {
+        return this.modules.size();
+    }
+
+    /**
+     * Computes a checksum of the indexed sources that does not depend on
+     * where they are checked out: modules are identified by module name
+     * and package files by file name.
+     * @return Lowercase hex encoded SHA-256 checksum.
+     */
+    public String getContentKey() {
+        Map<String, String> content = new TreeMap<>();
+        for (Map.Entry<String, String> e : this.sources.entrySet()) {
+            String module = this.modules.get(e.getKey());
+            String name = module != null
+                ? module : new File(e.getKey()).getName();
+            content.put(name, e.getValue());
+        }
+        StringBuilder key = new StringBuilder();
+        for (Map.Entry<String, String> e : content.entrySet()) {
+            key.append(e.getKey()).append('=').append(e.getValue())
+                .append('\n');
+        }
+        return IdrisSources.sha256(key.toString());
+    }
+
+    /**
+     * Compares this index against the index of the previous build.
+     * A module is stale if it was added or modified, or if it imports a
+     * stale module. Every module is stale if the settings changed.
+     * @param previous Index of the previous build, or null if there is none.
+     * @return Which modules are stale and why.
+     */
+    public Staleness compareTo(final BuildIndex previous) {
+        Staleness staleness = new Staleness();
+        if (previous == null) {
+            staleness.addAll(this.modules.size(), "no previous build index");
+            return staleness;
+        }
+
+        for (Map.Entry<String, String> e : this.settings.entrySet()) {
+            String old = previous.settings.get(e.getKey());
+            if (!e.getValue().equals(old)) {
+                staleness.addAll(this.modules.size(),
+                    e.getKey() + " changed from " + old
+                    + " to " + e.getValue());
+                return staleness;
+            }
+        }
+
+        for (String path : previous.sources.keySet()) {
+            if (!this.sources.containsKey(path)) {
+                staleness.addReason(path + " was removed");
+            }
+        }
+
+        Map<String, String> stale = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : this.sources.entrySet()) {
+            String old = previous.sources.get(e.getKey());
+            if (old == null) {
+                stale.put(e.getKey(), "added");
+            } else if (!old.equals(e.getValue())) {
+                stale.put(e.getKey(), "modified");
+            }
+        }
+        propagateToImporters(stale);
+
+        for (Map.Entry<String, String> e : stale.entrySet()) {
+            String module = this.modules.get(e.getKey());
+            if (module == null) {
+                // Package files are not modules but still force a rebuild
+                staleness.addReason(e.getKey() + " " + e.getValue());
+            } else {
+                staleness.addModule(module + " " + e.getValue());
+            }
+        }
+        return staleness;
+    }
+
+    private void propagateToImporters(final Map<String, String> stale) {
+        Map<String, String> pathsByModule = new HashMap<>();
+        for (Map.Entry<String, String> e : this.modules.entrySet()) {
+            pathsByModule.put(e.getValue(), e.getKey());
+        }
+        Map<String, List<String>> importers = new HashMap<>();
+        for (Map.Entry<String, List<String>> e : this.imports.entrySet()) {
+            for (String imported : e.getValue()) {
+                importers.computeIfAbsent(imported, k -> new ArrayList<>())
+                    .add(e.getKey());
+            }
+        }
+
+        Deque<String> pending = new ArrayDeque<>(stale.keySet());
+        while (!pending.isEmpty()) {
+            String module = this.modules.get(pending.pop());
+            if (module == null) {
+                continue;
+            }
+            for (String importer : importers.getOrDefault(
+                module, Collections.emptyList())) {
+                if (!stale.containsKey(importer)) {
+                    stale.put(importer, "imports " + module);
+                    pending.push(importer);
+                }
+            }
+        }
+    }
+
+    /**
+     * The stale modules of a build and the reasons they are stale.
+     */
+    public static final class Staleness {
+        /**
+         * Number of stale modules.
+         */
+        private int staleModules;
+
+        /**
+         * Human readable reasons for a rebuild.
+         */
+        private final List<String> reasons = new ArrayList<>();
+
+        private void addAll(final int modules, final String reason) {
+            this.staleModules = modules;
+            this.reasons.add(reason);
+        }
+
+        private void addModule(final String reason) {
+            this.staleModules++;
+            this.reasons.add(reason);
+        }
+
+        private void addReason(final String reason) {
+            this.reasons.add(reason);
+        }
+
+        /**
+         * Gets the number of stale modules.
+         * @return Number of stale modules.
+         */
+        public int getStaleModules() {
+            return this.staleModules;
+        }
+
+        /**
+         * Gets the reasons for a rebuild.
+         * @return Human readable reasons for a rebuild.
+         */
+        public List<String> getReasons() {
+            return this.reasons;
+        }
+
+        /**
+         * Checks whether the previous build output can be reused.
+         * @return Whether nothing relevant changed.
+         */
+        public boolean isUpToDate() {
+            return this.reasons.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the wall time, CPU time, allocated bytes and garbage collection
+ * time of each phase of a goal, such as artifact resolution or running the
+ * compiler. CPU time and allocations are those of the thread that ran the
+ * phase plus those of threads that did its work, such as the thread of an
+ * isolated compile, while garbage collection time is JVM-wide. Work done
+ * in another JVM is not measured, so its CPU time and allocations are
+ * reported as "n/a".
+ */
+public final class BuildMetrics {
+    /**
+     * Bytes per mebibyte, for the log summary.
+     */
+    private static final long MEBIBYTE = 1024 * 1024;
+
+    /**
+     * Name of the goal being measured.
+     */
+    private final String goal;
+
+    /**
+     * Totals of each phase in the order they first ran.
+     */
+    private final Map<String, PhaseTotals> phases = new LinkedHashMap<>();
+
+    /**
+     * When the goal started, in nanoseconds.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * @param goal1 Name of the goal being measured.
+     */
+    public BuildMetrics(final String goal1) {
+        this.goal = goal1;
+    }
+
+    /**
+     * Starts timing a phase, which ends when the returned timer is closed.
+     * Phases with the same name are added up.
+     * @param phase Name of the phase.
+     * @return Timer to close when the phase ends.
+     */
+    public Timer start(final String phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Summarises the phases for the Maven log.
+     * @return One line summary of every phase.
+     */
+    public synchronized String summary() {
+        List<String> parts = new ArrayList<>();
+        for (Map.Entry<String, PhaseTotals> e : this.phases.entrySet()) {
+            PhaseTotals t = e.getValue();
+            String usage = t.outOfProcess ? "cpu n/a, alloc n/a"
+                : "cpu " + millis(t.cpuNanos) + "ms, alloc "
+                + (t.allocatedBytes / MEBIBYTE) + "MiB";
+            parts.add(e.getKey() + " " + millis(t.wallNanos) + "ms ("
+                + usage + ", gc " + t.gcMillis + "ms)");
+        }
+        return "Idris " + this.goal + " metrics: total "
+            + millis(System.nanoTime() - this.start) + "ms; "
+            + String.join(", ", parts);
+    }
+
+    /**
+     * Writes the phases as a JSON report.
+     * @param file File to write the report to.
+     * @throws IOException if the report could not be written.
+     */
+    public synchronized void write(final File file) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"goal\": \"").append(this.goal).append("\",\n")
+            .append("  \"timestamp\": ")
+            .append(System.currentTimeMillis()).append(",\n")
+            .append("  \"totalMillis\": ")
+            .append(millis(System.nanoTime() - this.start)).append(",\n")
+            .append("  \"phases\": [");
+        String separator = "\n";
+        for (Map.Entry<String, PhaseTotals> e : this.phases.entrySet()) {
+            PhaseTotals t = e.getValue();
+            json.append(separator)
+                .append("    {\"name\": \"").append(e.getKey())
+                .append("\", \"count\": ").append(t.count)
+                .append(", \"wallMillis\": ").append(millis(t.wallNanos))
+                .append(", \"cpuMillis\": ")
+                .append(t.outOfProcess ? "null" : millis(t.cpuNanos))
+                .append(", \"allocatedBytes\": ")
+                .append(t.outOfProcess ? "null" : t.allocatedBytes)
+                .append(", \"gcMillis\": ").append(t.gcMillis)
+                .append('}');
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+
+        file.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(
+            file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private synchronized void record(
+        final String phase,
+        final long wallNanos,
+        final long cpuNanos,
+        final long allocatedBytes,
+        final long gcMillis,
+        final boolean outOfProcess) {
+        PhaseTotals totals =
+            this.phases.computeIfAbsent(phase, k -> new PhaseTotals());
+        totals.count++;
+        totals.wallNanos += wallNanos;
+        totals.cpuNanos += cpuNanos;
+        totals.allocatedBytes += allocatedBytes;
+        totals.gcMillis += gcMillis;
+        totals.outOfProcess |= outOfProcess;
+    }
+
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Gets the CPU time of the current thread.
+     * @return CPU time in nanoseconds, or 0 if it cannot be measured.
+     */
+    static long cpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!threads.isCurrentThreadCpuTimeSupported()) {
+            return 0;
+        }
+        return Math.max(0, threads.getCurrentThreadCpuTime());
+    }
+
+    /**
+     * Gets the bytes allocated by the current thread.
+     * @return Allocated bytes, or 0 if they cannot be measured.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot =
+                (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported()) {
+                return Math.max(0, hotspot.getThreadAllocatedBytes(
+                    Thread.currentThread().getId()));
+            }
+        }
+        return 0;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc
+            : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Running totals of a phase.
+     */
+    private static final class PhaseTotals {
+        /**
+         * Number of times the phase ran.
+         */
+        private int count;
+
+        /**
+         * Total wall time in nanoseconds.
+         */
+        private long wallNanos;
+
+        /**
+         * Total CPU time in nanoseconds.
+         */
+        private long cpuNanos;
+
+        /**
+         * Total allocated bytes.
+         */
+        private long allocatedBytes;
+
+        /**
+         * Total garbage collection time in milliseconds.
+         */
+        private long gcMillis;
+
+        /**
+         * Whether some of the work was done in another JVM.
+         */
+        private boolean outOfProcess;
+    }
+
+    /**
+     * Measures one run of a phase on the current thread, plus the usage
+     * of threads that worked for it.
+     */
+    public final class Timer implements AutoCloseable {
+        /**
+         * Name of the phase.
+         */
+        private final String phase;
+
+        /**
+         * Wall clock at the start of the phase.
+         */
+        private final long wallStart = System.nanoTime();
+
+        /**
+         * Thread CPU time at the start of the phase.
+         */
+        private final long cpuStart = cpuNanos();
+
+        /**
+         * Thread allocations at the start of the phase.
+         */
+        private final long allocatedStart = allocatedBytes();
+
+        /**
+         * JVM garbage collection time at the start of the phase.
+         */
+        private final long gcStart = gcMillis();
+
+        /**
+         * CPU time of other threads that worked for the phase.
+         */
+        private long otherCpuNanos;
+
+        /**
+         * Allocations of other threads that worked for the phase.
+         */
+        private long otherAllocatedBytes;
+
+        /**
+         * Whether the phase's work was done in another JVM.
+         */
+        private boolean outOfProcess;
+
+        private Timer(final String phase1) {
+            this.phase = phase1;
+        }
+
+        /**
+         * Adds the usage of a thread that did the phase's work, such as
+         * the thread of an isolated run.
+         * @param cpuNanos1 CPU time of the thread in nanoseconds.
+         * @param allocatedBytes1 Bytes allocated by the thread.
+         */
+        public void addThreadUsage(
+            final long cpuNanos1,
+            final long allocatedBytes1) {
+            this.otherCpuNanos += cpuNanos1;
+            this.otherAllocatedBytes += allocatedBytes1;
+        }
+
+        /**
+         * Marks the phase's work as done in another JVM, such as a child
+         * JVM or the compiler daemon, whose CPU time and allocations are
+         * not measured.
+         */
+        public void outOfProcess() {
+            this.outOfProcess = true;
+        }
+
+        /**
+         * Ends the phase and records its measurements.
+         */
+        @Override
+        public void close() {
+            record(this.phase,
+                System.nanoTime() - this.wallStart,
+                cpuNanos() - this.cpuStart + this.otherCpuNanos,
+                allocatedBytes() - this.allocatedStart
+                    + this.otherAllocatedBytes,
+                gcMillis() - this.gcStart,
+                this.outOfProcess);
+        }
+    }
+}
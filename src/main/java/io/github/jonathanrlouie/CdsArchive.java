@@ -0,0 +1,53 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Locates the class data sharing (CDS) archive of an Idris compiler.
+ * Archives hold pre-parsed and pre-verified compiler classes, which cuts
+ * the startup time of forked compiler JVMs. An archive only matches the
+ * exact JVM and compiler JARs it was created with, so it is keyed on both
+ * and stored next to the first compiler JAR.
+ */
+public final class CdsArchive {
+    private CdsArchive() { }
+
+    /**
+     * Oldest Java version that supports dynamic CDS archives.
+     */
+    public static final int MIN_JAVA_VERSION = 13;
+
+    /**
+     * Number of key characters used in archive file names.
+     */
+    private static final int KEY_LENGTH = 16;
+
+    /**
+     * Gets the file the CDS archive for a compiler classpath is stored in,
+     * whether or not it exists.
+     * @param classpath JAR files of the compiler in classpath order.
+     * @return The archive file.
+     */
+    public static File archiveFor(final List<File> classpath) {
+        StringBuilder key = new StringBuilder()
+            .append(System.getProperty("java.home")).append('\n')
+            .append(System.getProperty("java.vm.version"));
+        for (File jar : classpath) {
+            key.append('\n').append(IdrisSources.sha256Memoized(jar));
+        }
+        String name = "idris-compiler-"
+            + IdrisSources.sha256(key.toString()).substring(0, KEY_LENGTH)
+            + ".jsa";
+        return new File(classpath.get(0).getAbsoluteFile().getParentFile(),
+            name);
+    }
+
+    /**
+     * Checks whether this JVM can create and use dynamic CDS archives.
+     * @return Whether dynamic CDS archives are supported.
+     */
+    public static boolean isSupported() {
+        return JavaCommand.javaVersion() >= MIN_JAVA_VERSION;
+    }
+}
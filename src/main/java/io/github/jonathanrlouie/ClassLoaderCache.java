@@ -0,0 +1,149 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of class loaders shared by every mojo execution in the plugin's
+ * class realm, so a reactor build loads the same JAR files only once.
+ * Class loaders are keyed on their ordered JAR files along with each
+ * file's size and modification time, so rebuilt JARs are picked up.
+ * A class loader is handed to one user at a time until it is released,
+ * since the Idris compiler and runtime keep global state in static fields.
+ */
+public final class ClassLoaderCache {
+    private ClassLoaderCache() { }
+
+    /**
+     * Maximum number of idle class loaders to keep.
+     */
+    static final int MAX_SIZE = 8;
+
+    /**
+     * Keys of idle class loaders in least recently released order.
+     */
+    private static final Map<URLClassLoader, String> IDLE =
+        new LinkedHashMap<>();
+
+    /**
+     * Keys of class loaders that have not been released yet.
+     */
+    private static final Map<URLClassLoader, String> LEASED =
+        new IdentityHashMap<>();
+
+    /**
+     * Number of requests served from the cache.
+     */
+    private static long hits;
+
+    /**
+     * Number of requests that created a new class loader.
+     */
+    private static long misses;
+
+    /**
+     * Gets a class loader for the given JAR files that nobody else is using,
+     * creating it if there is no idle one. The class loader should be
+     * passed to {@link #release(ClassLoader)} once it is no longer used.
+     * @param jars JAR files of the class loader in classpath order.
+     * @return A parentless, indexed class loader for the JAR files.
+     */
+    public static synchronized ClassLoader get(final List<File> jars) {
+        String key = key(jars);
+        Iterator<Map.Entry<URLClassLoader, String>> idle =
+            IDLE.entrySet().iterator();
+        while (idle.hasNext()) {
+            Map.Entry<URLClassLoader, String> entry = idle.next();
+            if (entry.getValue().equals(key)) {
+                idle.remove();
+                LEASED.put(entry.getKey(), key);
+                hits++;
+                return entry.getKey();
+            }
+        }
+
+        misses++;
+        URLClassLoader loader = new IndexedClassLoader(jars);
+        LEASED.put(loader, key);
+        return loader;
+    }
+
+    /**
+     * Makes a class loader from {@link #get(List)} available for reuse.
+     * Releasing may evict and close the least recently used idle
+     * class loader.
+     * @param classLoader Class loader that is no longer used.
+     */
+    public static synchronized void release(final ClassLoader classLoader) {
+        String key = LEASED.remove(classLoader);
+        if (key != null) {
+            IDLE.put((URLClassLoader) classLoader, key);
+            evict();
+        }
+    }
+
+    /**
+     * Forgets a class loader from {@link #get(List)} without reusing it,
+     * for when a program in it was abandoned and may still be running.
+     * @param classLoader Class loader that must not be reused.
+     */
+    public static synchronized void discard(final ClassLoader classLoader) {
+        LEASED.remove(classLoader);
+    }
+
+    /**
+     * Gets the number of requests served from the cache.
+     * @return Number of cache hits.
+     */
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of requests that created a new class loader.
+     * @return Number of cache misses.
+     */
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Describes the cache for debug logging.
+     * @return Hit, miss and size counts of the cache.
+     */
+    public static synchronized String stats() {
+        return "class loader cache: " + hits + " hits, " + misses
+            + " misses, " + LEASED.size() + " in use, "
+            + IDLE.size() + "/" + MAX_SIZE + " idle";
+    }
+
+    private static void evict() {
+        Iterator<URLClassLoader> eldest = IDLE.keySet().iterator();
+        while (IDLE.size() > MAX_SIZE) {
+            URLClassLoader loader = eldest.next();
+            eldest.remove();
+            try {
+                loader.close();
+            } catch (IOException e) {
+                // Nothing else can be done to release the JAR files
+            }
+        }
+    }
+
+    private static String key(final List<File> jars) {
+        StringBuilder key = new StringBuilder();
+        for (File jar : jars) {
+            key.append(jar.getAbsolutePath())
+                .append(':').append(jar.length())
+                .append(':').append(jar.lastModified())
+                .append(File.pathSeparatorChar);
+        }
+        return key.toString();
+    }
+}
@@ -1,18 +1,25 @@
 package io.github.jonathanrlouie;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.Enumeration;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
@@ -24,11 +31,19 @@ import org.apache.maven.repository.RepositorySystem;
 public final class ClassLoaderUtils {
     private ClassLoaderUtils() { }
 
+    /**
+     * JAR files of local Idris installations keyed by directory and
+     * modification time.
+     */
+    private static final Map<String, List<File>> LOCAL_JARS =
+        new ConcurrentHashMap<>();
+
     /**
      * Gets the class loader for the Idris app with a user supplied JVM runtime.
      * @param project MavenProject of Idris app used to fetch dependencies.
      * @param appJar JAR file of the Idris app to run.
      * @param idrisHome Path to a local installation of the idris-jvm-runtime.
+     * @param metrics Metrics to record resolution and loading times in.
      * @return The class loader for the Idris app with a user supplied
      * JVM runtime.
      * @throws DependencyResolutionRequiredException if artifact file
@@ -37,22 +52,66 @@ public final class ClassLoaderUtils {
     public static ClassLoader getLocalAppClassLoader(
         final MavenProject project,
         final File appJar,
-        final String idrisHome)
+        final String idrisHome,
+        final BuildMetrics metrics)
+        throws DependencyResolutionRequiredException {
+        List<File> classpath =
+            getLocalAppClasspath(project, appJar, idrisHome, metrics);
+        try (BuildMetrics.Timer timer = metrics.start("classloader")) {
+            return getClassLoader(classpath.stream());
+        }
+    }
+
+    /**
+     * Gets the classpath of the Idris app with a user supplied JVM runtime.
+     * @param project MavenProject of Idris app used to fetch dependencies.
+     * @param appJar JAR file of the Idris app to run.
+     * @param idrisHome Path to a local installation of the idris-jvm-runtime.
+     * @param metrics Metrics to record the resolution time in.
+     * @return The JAR files of the Idris app, its dependencies and the
+     * user supplied JVM runtime, starting with the app JAR.
+     * @throws DependencyResolutionRequiredException if artifact file
+     * used but not resolved when getting app dependencies.
+     */
+    public static List<File> getLocalAppClasspath(
+        final MavenProject project,
+        final File appJar,
+        final String idrisHome,
+        final BuildMetrics metrics)
         throws DependencyResolutionRequiredException {
-        Stream<File> appDependencies = getAppDependencies(project);
-        Stream<File> jars = getLocalCompilerJars(idrisHome);
-        return getClassLoader(
-            prependAppJar(appJar, Stream.concat(appDependencies, jars)));
+        try (BuildMetrics.Timer timer = metrics.start("resolve")) {
+            return buildAppClasspath(appJar, getAppDependencies(project),
+                getLocalCompilerJars(idrisHome));
+        }
     }
 
     /**
      * Gets the class loader for the user supplied Idris compiler.
      * @param idrisHome Path to a local installation of the idris-jvm-compiler.
+     * @param metrics Metrics to record resolution and loading times in.
      * @return The class loader for the user supplied Idris compiler.
      */
     public static ClassLoader getLocalCompilerClassLoader(
-        final String idrisHome) {
-        return getClassLoader(getLocalCompilerJars(idrisHome));
+        final String idrisHome,
+        final BuildMetrics metrics) {
+        List<File> classpath = getLocalCompilerClasspath(idrisHome, metrics);
+        try (BuildMetrics.Timer timer = metrics.start("classloader")) {
+            return getClassLoader(classpath.stream());
+        }
+    }
+
+    /**
+     * Gets the classpath of the user supplied Idris compiler.
+     * @param idrisHome Path to a local installation of the idris-jvm-compiler.
+     * @param metrics Metrics to record the resolution time in.
+     * @return The JAR files of the user supplied Idris compiler.
+     */
+    public static List<File> getLocalCompilerClasspath(
+        final String idrisHome,
+        final BuildMetrics metrics) {
+        try (BuildMetrics.Timer timer = metrics.start("resolve")) {
+            return getLocalCompilerJars(idrisHome);
+        }
     }
 
     /**
@@ -63,6 +122,8 @@ public final class ClassLoaderUtils {
      * @param appJar JAR file of the Idris app to run.
      * @param project MavenProject of Idris app used to fetch dependencies.
      * @param version Version of the JVM runtime to fetch.
+     * @param lock Lock of the resolved artifacts.
+     * @param metrics Metrics to record resolution and loading times in.
      * @return The class loader for the Idris app with a JVM runtime
      * fetched from Maven Central
      * @throws DependencyResolutionRequiredException if artifact file
@@ -73,19 +134,55 @@ public final class ClassLoaderUtils {
         final MavenSession session,
         final File appJar,
         final MavenProject project,
-        final String version)
+        final String version,
+        final ResolutionLock lock,
+        final BuildMetrics metrics)
+        throws DependencyResolutionRequiredException {
+        List<File> classpath = getRemoteAppClasspath(
+            repositorySystem, session, appJar, project, version, lock,
+            metrics);
+        try (BuildMetrics.Timer timer = metrics.start("classloader")) {
+            return getClassLoader(classpath.stream());
+        }
+    }
+
+    /**
+     * Gets the classpath of the Idris app with a JVM runtime fetched
+     * from Maven Central.
+     * @param repositorySystem RepositorySystem to resolve dependencies.
+     * @param session MavenSession to resolve dependencies.
+     * @param appJar JAR file of the Idris app to run.
+     * @param project MavenProject of Idris app used to fetch dependencies.
+     * @param version Version of the JVM runtime to fetch.
+     * @param lock Lock of the resolved artifacts.
+     * @param metrics Metrics to record the resolution time in.
+     * @return The JAR files of the Idris app, its dependencies and the
+     * JVM runtime, starting with the app JAR.
+     * @throws DependencyResolutionRequiredException if artifact file
+     * used but not resolved when getting app dependencies.
+     */
+    public static List<File> getRemoteAppClasspath(
+        final RepositorySystem repositorySystem,
+        final MavenSession session,
+        final File appJar,
+        final MavenProject project,
+        final String version,
+        final ResolutionLock lock,
+        final BuildMetrics metrics)
         throws DependencyResolutionRequiredException {
-        Stream<File> appDependencies = getAppDependencies(project);
-        Set<Artifact> artifacts = getRemoteArtifacts(
-            repositorySystem,
-            session,
-            "idris-jvm-runtime",
-            version,
-            "jar");
-        Stream<File> jars = artifacts.stream()
-            .map(Artifact::getFile);
-        return getClassLoader(
-            prependAppJar(appJar, Stream.concat(appDependencies, jars)));
+        try (BuildMetrics.Timer timer = metrics.start("resolve")) {
+            // Resolve the runtime while walking the test classpath
+            CompletableFuture<List<File>> runtime = supplyAsync(() ->
+                getRemoteArtifacts(
+                    repositorySystem,
+                    session,
+                    "idris-jvm-runtime",
+                    version,
+                    "jar",
+                    lock));
+            Set<File> appDependencies = getAppDependencies(project);
+            return buildAppClasspath(appJar, appDependencies, join(runtime));
+        }
     }
 
     /**
@@ -93,81 +190,197 @@ public final class ClassLoaderUtils {
      * @param repositorySystem RepositorySystem to resolve dependencies.
      * @param session MavenSession to resolve dependencies.
      * @param idrisVersion Version of the Idris compiler artifact to fetch.
+     * @param lock Lock of the resolved artifacts.
+     * @param metrics Metrics to record resolution and loading times in.
      * @return The class loader for the Idris compiler fetched
      * from Maven Central.
      */
     public static ClassLoader getRemoteCompilerClassLoader(
         final RepositorySystem repositorySystem,
         final MavenSession session,
-        final String idrisVersion) {
-        Set<Artifact> jars = getRemoteArtifacts(
-            repositorySystem,
-            session,
-            "idris-jvm-compiler",
-            idrisVersion,
-            "jar");
-        Set<Artifact> zips = getRemoteArtifacts(
-            repositorySystem,
-            session,
-            "idris-jvm-compiler",
-            idrisVersion,
-            "zip");
-
-        for (Artifact zip : zips) {
-            File artifactFile = zip.getFile();
-            try (ZipFile zipFile = new ZipFile(artifactFile)) {
-                Enumeration<? extends ZipEntry> entries = zipFile.entries();
-                while (entries.hasMoreElements()) {
-                    ZipEntry entry = entries.nextElement();
-                    File destinationDir = artifactFile.getParentFile();
-                    String canonicalDestinationDirPath = destinationDir.getCanonicalPath();
-                    File destinationFile = new File(destinationDir, entry.getName());
-                    String canonicalDestinationFile = destinationFile.getCanonicalPath();
-
-                    // This is meant to avoid Zip Slip vulnerability
-                    if (!canonicalDestinationFile.startsWith(canonicalDestinationDirPath + File.separator)) { 
-                        throw new RuntimeException("Entry is outside of the target dir: " + entry.getName()); 
-                    }
-
-                    if (entry.isDirectory()) {
-                        destinationFile.mkdirs();
-                    } else {
-                        destinationFile.getParentFile().mkdirs();
-                        zipFile.getInputStream(entry).transferTo(new FileOutputStream(destinationFile));
-                    }
+        final String idrisVersion,
+        final ResolutionLock lock,
+        final BuildMetrics metrics) {
+        List<File> classpath = getRemoteCompilerClasspath(
+            repositorySystem, session, idrisVersion, lock, metrics);
+        try (BuildMetrics.Timer timer = metrics.start("classloader")) {
+            return getClassLoader(classpath.stream());
+        }
+    }
+
+    /**
+     * Gets the classpath of the Idris compiler fetched from Maven Central,
+     * unzipping the Idris base libraries next to the compiler artifact.
+     * The compiler JARs are resolved while the base library zip is
+     * resolved and extracted, so a cold build waits for the slower of
+     * the two rather than for both.
+     * @param repositorySystem RepositorySystem to resolve dependencies.
+     * @param session MavenSession to resolve dependencies.
+     * @param idrisVersion Version of the Idris compiler artifact to fetch.
+     * @param lock Lock of the resolved artifacts.
+     * @param metrics Metrics to record resolution and extraction times in.
+     * @return The JAR files of the Idris compiler fetched
+     * from Maven Central.
+     */
+    public static List<File> getRemoteCompilerClasspath(
+        final RepositorySystem repositorySystem,
+        final MavenSession session,
+        final String idrisVersion,
+        final ResolutionLock lock,
+        final BuildMetrics metrics) {
+        try (BuildMetrics.Timer timer = metrics.start("resolve")) {
+            CompletableFuture<Void> baseLibs = supplyAsync(() ->
+                getRemoteArtifacts(
+                    repositorySystem,
+                    session,
+                    "idris-jvm-compiler",
+                    idrisVersion,
+                    "zip",
+                    lock))
+                .thenAccept(zips -> extractAll(zips, metrics));
+            List<File> jars = getRemoteArtifacts(
+                repositorySystem,
+                session,
+                "idris-jvm-compiler",
+                idrisVersion,
+                "jar",
+                lock);
+            join(baseLibs);
+            return jars;
+        }
+    }
+
+    private static void extractAll(
+        final List<File> zips,
+        final BuildMetrics metrics) {
+        try (BuildMetrics.Timer timer = metrics.start("extract")) {
+            for (File zip : zips) {
+                try {
+                    BaseLibExtractor.extract(zip);
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                        "Failed to unzip Idris base libraries", e);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to unzip Idris base libraries");
             }
         }
+    }
 
-        return getClassLoader(jars.stream().map(Artifact::getFile));
+    /**
+     * Resolves an artifact set in the background on a thread of its own,
+     * which ends with the resolution. Resolution mostly waits on
+     * downloads, so the threads are bounded by the artifact sets being
+     * resolved rather than by processors, and none outlive the mojo.
+     */
+    private static <T> CompletableFuture<T> supplyAsync(
+        final Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, task -> {
+            Thread thread = new Thread(task, "idris-resolve");
+            thread.setDaemon(true);
+            thread.start();
+        });
     }
 
-    private static Stream<File> getLocalCompilerJars(final String idrisHome) {
-        File idrisHomeFile = new File(idrisHome);
-        File[] idrisHomeFiles = idrisHomeFile.listFiles();
-        if (idrisHomeFiles == null) {
-            throw new RuntimeException("Either Idris home "
-                + idrisHome + " was not a directory, or an I/O error occurred");
+    /**
+     * Waits for a future, rethrowing its failure unwrapped.
+     */
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
+    }
 
-        Set<File> dependencies = new TreeSet<>();
-        for (File f : idrisHomeFiles) {
-            String name = f.getName();
-            if (name.endsWith(".jar")) {
-                dependencies.add(f);
+    /**
+     * Lists the JAR files of a local Idris installation, listing the
+     * directory again only when files were added or removed since.
+     */
+    private static List<File> getLocalCompilerJars(final String idrisHome) {
+        File idrisHomeFile = new File(idrisHome).getAbsoluteFile();
+        String key = idrisHomeFile.getPath() + ':'
+            + idrisHomeFile.lastModified();
+        return LOCAL_JARS.computeIfAbsent(key, k -> {
+            File[] idrisHomeFiles = idrisHomeFile.listFiles();
+            if (idrisHomeFiles == null) {
+                throw new RuntimeException("Either Idris home " + idrisHome
+                    + " was not a directory, or an I/O error occurred");
+            }
+
+            Set<File> dependencies = new TreeSet<>();
+            for (File f : idrisHomeFiles) {
+                String name = f.getName();
+                if (name.endsWith(".jar")) {
+                    dependencies.add(f);
+                }
+            }
+            return Collections.unmodifiableList(
+                new ArrayList<>(dependencies));
+        });
+    }
+
+    /**
+     * Gets the base library zips extracted next to the JAR files of a
+     * compiler classpath.
+     * @param compilerClasspath JAR files of the Idris compiler.
+     * @return The extracted zips in classpath order.
+     */
+    public static List<File> getBaseLibZips(final List<File> compilerClasspath) {
+        List<File> zips = new ArrayList<>();
+        for (File jar : compilerClasspath) {
+            String name = jar.getName();
+            if (!name.endsWith(".jar")) {
+                continue;
+            }
+            File zip = new File(jar.getParentFile(),
+                name.substring(0, name.length() - ".jar".length()) + ".zip");
+            if (BaseLibExtractor.markerFile(zip).isFile()) {
+                zips.add(zip);
             }
         }
-        return dependencies.stream();
+        return zips;
     }
 
-    private static Set<Artifact> getRemoteArtifacts(
+    /**
+     * Lists the files of a local Idris installation other than its JAR
+     * files, such as the compiled base libraries.
+     * @param idrisHome Path to a local Idris installation.
+     * @return The files keyed by their path relative to the installation,
+     * in path order.
+     */
+    public static SortedMap<String, File> getLocalLibraries(
+        final String idrisHome) {
+        Path root = new File(idrisHome).getAbsoluteFile().toPath();
+        SortedMap<String, File> libraries = new TreeMap<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(Files::isRegularFile)
+                .filter(p -> !(p.getParent().equals(root)
+                    && p.getFileName().toString().endsWith(".jar")))
+                .forEach(p -> libraries.put(root.relativize(p).toString()
+                    .replace(File.separatorChar, '/'), p.toFile()));
+        } catch (IOException e) {
+            throw new RuntimeException(
+                "Failed to list the libraries of Idris home " + idrisHome, e);
+        }
+        return libraries;
+    }
+
+    private static List<File> getRemoteArtifacts(
         final RepositorySystem repositorySystem,
         final MavenSession session,
         final String artifactId,
         final String version,
-        final String packagingType) {
+        final String packagingType,
+        final ResolutionLock lock) {
+        String name = artifactId + "." + packagingType;
+        List<File> locked = lock.get(name);
+        if (locked != null) {
+            saveLock(lock);
+            return locked;
+        }
+
         Artifact artifact = repositorySystem.createArtifact(
             "io.github.mmhelloworld",
             artifactId,
@@ -182,7 +395,19 @@ public final class ClassLoaderUtils {
                 "No resolved artifacts found for " + artifactId);
         }
 
-        return resolvedArtifacts;
+        lock.put(name, resolvedArtifacts);
+        saveLock(lock);
+        return resolvedArtifacts.stream().map(Artifact::getFile)
+            .collect(Collectors.toList());
+    }
+
+    private static void saveLock(final ResolutionLock lock) {
+        try {
+            lock.save();
+        } catch (IOException e) {
+            throw new RuntimeException(
+                "Failed to write Idris artifact lock", e);
+        }
     }
 
     private static Set<Artifact> resolveArtifacts(
@@ -201,35 +426,38 @@ public final class ClassLoaderUtils {
         return repositorySystem.resolve(request).getArtifacts();
     }
 
-    private static Stream<File> getAppDependencies(final MavenProject project)
+    private static Set<File> getAppDependencies(final MavenProject project)
     throws DependencyResolutionRequiredException {
-        return project.getTestClasspathElements()
-            .stream()
-            .map(File::new)
-            .collect(Collectors.toSet())
-            .stream();
+        Set<File> dependencies = new LinkedHashSet<>();
+        for (String element : project.getTestClasspathElements()) {
+            dependencies.add(new File(element));
+        }
+        return dependencies;
     }
 
-    private static Stream<File> prependAppJar(
-        final File appJar, final Stream<File> jars) {
+    /**
+     * Builds the classpath of an app: the app JAR first, then its
+     * dependencies in test classpath order, then the Idris runtime JARs,
+     * leaving out artifacts that were already added.
+     */
+    private static List<File> buildAppClasspath(
+        final File appJar,
+        final Collection<File> appDependencies,
+        final Collection<File> runtimeJars) {
         if (appJar == null) {
             throw new RuntimeException(
                 "No application jar found at appJar path");
         }
 
         // Make sure Application Jar is at beginning of classpath
-        return Stream.concat(Stream.of(appJar), jars);
+        ClasspathBuilder classpath = new ClasspathBuilder();
+        classpath.add(appJar);
+        classpath.addAll(appDependencies);
+        classpath.addAll(runtimeJars);
+        return classpath.build();
     }
 
     private static ClassLoader getClassLoader(final Stream<File> jars) {
-        URL[] jarUrls = jars.map(file -> {
-            try {
-                return file.toURI().toURL();
-            } catch (MalformedURLException e) {
-                throw new RuntimeException(
-                    "Failed to convert into url " + file, e);
-            }
-        }).toArray(URL[]::new);
-        return new URLClassLoader(jarUrls, null);
+        return ClassLoaderCache.get(jars.collect(Collectors.toList()));
     }
 }
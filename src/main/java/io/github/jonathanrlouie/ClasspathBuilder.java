@@ -0,0 +1,175 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Builds a classpath in the order elements are added, leaving out
+ * elements that duplicate an earlier one. A JAR file duplicates an earlier
+ * one if it has the same path, the same Maven groupId and artifactId, in
+ * any version, or the same contents. The first element wins, so a
+ * project's own dependencies take precedence over the same artifacts
+ * brought along by the Idris runtime.
+ */
+public final class ClasspathBuilder {
+    /**
+     * Maven coordinates of JAR files keyed by path, size and modification
+     * time, so unchanged JARs are only opened once per plugin realm.
+     * JARs without Maven metadata map to the empty string.
+     */
+    private static final Map<String, String> COORDINATES =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Classpath elements in classpath order.
+     */
+    private final List<File> elements = new ArrayList<>();
+
+    /**
+     * Absolute paths of the added elements.
+     */
+    private final Set<String> paths = new HashSet<>();
+
+    /**
+     * groupId:artifactId of the added JAR files.
+     */
+    private final Set<String> artifacts = new HashSet<>();
+
+    /**
+     * Added JAR files keyed by size. Only JAR files of the same size are
+     * hashed to compare their contents.
+     */
+    private final Map<Long, List<File>> sizes = new HashMap<>();
+
+    /**
+     * Checksums of the added JAR files that were hashed.
+     */
+    private final Set<String> checksums = new HashSet<>();
+
+    /**
+     * Elements left out as duplicates.
+     */
+    private final List<File> duplicates = new ArrayList<>();
+
+    /**
+     * Adds an element unless it duplicates an earlier one.
+     * @param element JAR file or class directory.
+     * @return Whether the element was added.
+     */
+    public boolean add(final File element) {
+        File file = element.getAbsoluteFile();
+        if (!this.paths.add(file.getPath())) {
+            this.duplicates.add(element);
+            return false;
+        }
+        if (!file.isFile()) {
+            this.elements.add(file);
+            return true;
+        }
+
+        String coordinates = coordinates(file);
+        if (!coordinates.isEmpty() && this.artifacts.contains(coordinates)) {
+            this.duplicates.add(element);
+            return false;
+        }
+        List<File> sameSize = this.sizes.computeIfAbsent(
+            file.length(), k -> new ArrayList<>());
+        if (!sameSize.isEmpty()) {
+            for (File other : sameSize) {
+                this.checksums.add(IdrisSources.sha256Memoized(other));
+            }
+            if (this.checksums.contains(IdrisSources.sha256Memoized(file))) {
+                this.duplicates.add(element);
+                return false;
+            }
+        }
+        sameSize.add(file);
+        if (!coordinates.isEmpty()) {
+            this.artifacts.add(coordinates);
+        }
+        this.elements.add(file);
+        return true;
+    }
+
+    /**
+     * Adds elements in order, leaving out duplicates.
+     * @param elements1 JAR files or class directories.
+     * @return This builder.
+     */
+    public ClasspathBuilder addAll(final Iterable<File> elements1) {
+        for (File element : elements1) {
+            add(element);
+        }
+        return this;
+    }
+
+    /**
+     * Gets the classpath built so far.
+     * @return Classpath elements in classpath order.
+     */
+    public List<File> build() {
+        return new ArrayList<>(this.elements);
+    }
+
+    /**
+     * Gets the elements left out as duplicates.
+     * @return Duplicate elements in the order they were added.
+     */
+    public List<File> getDuplicates() {
+        return this.duplicates;
+    }
+
+    /**
+     * Reads groupId:artifactId from the Maven metadata of a JAR file, or
+     * gets the empty string if there is not exactly one artifact in it,
+     * as in shaded JARs.
+     */
+    private static String coordinates(final File jar) {
+        String key = jar.getPath() + ':' + jar.length()
+            + ':' + jar.lastModified();
+        return COORDINATES.computeIfAbsent(key, k -> readCoordinates(jar));
+    }
+
+    private static String readCoordinates(final File jar) {
+        String found = "";
+        try (ZipFile zip = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!name.startsWith("META-INF/maven/")
+                    || !name.endsWith("/pom.properties")) {
+                    continue;
+                }
+                if (!found.isEmpty()) {
+                    return "";
+                }
+                Properties pom = new Properties();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    pom.load(in);
+                }
+                String groupId = pom.getProperty("groupId");
+                String artifactId = pom.getProperty("artifactId");
+                if (groupId != null && artifactId != null) {
+                    found = groupId + ":" + artifactId;
+                }
+            }
+        } catch (IOException e) {
+            // Not a readable JAR, so it only matches by path or contents
+            return "";
+        }
+        return found;
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+
+/**
+ * An Idris program compiled by the compile goal, configured as a
+ * compilationUnit element of the compilationUnits parameter.
+ */
+public final class CompilationUnit {
+    /**
+     * The file with the main function.
+     */
+    private File mainFile;
+
+    /**
+     * Name of the output file. Equivalent to
+     * setting the -o flag of the Idris compiler.
+     */
+    private String outputFile = "main";
+
+    /**
+     * Location of build output directory relative to the project's base
+     * directory.
+     * Equivalent to setting the --output-dir option of the Idris compiler.
+     */
+    private String outputDir = ".";
+
+    /**
+     * Creates an empty compilation unit for Maven to configure.
+     */
+    public CompilationUnit() { }
+
+    /**
+     * @param mainFile1 The file with the main function.
+     * @param outputFile1 Name of the output file.
+     * @param outputDir1 Location of build output directory.
+     */
+    public CompilationUnit(
+        final File mainFile1,
+        final String outputFile1,
+        final String outputDir1) {
+        this.mainFile = mainFile1;
+        this.outputFile = outputFile1;
+        this.outputDir = outputDir1;
+    }
+
+    /**
+     * Gets the file with the main function.
+     * @return The file with the main function.
+     */
+    public File getMainFile() {
+        return this.mainFile;
+    }
+
+    /**
+     * Gets the name of the output file.
+     * @return Name of the output file.
+     */
+    public String getOutputFile() {
+        return this.outputFile;
+    }
+
+    /**
+     * Gets the location of the build output directory.
+     * @return Location of build output directory.
+     */
+    public String getOutputDir() {
+        return this.outputDir;
+    }
+
+    /**
+     * Gets the directory the compiler writes this unit's program to.
+     * @return Application output directory of this unit.
+     */
+    public File getAppOutputDir() {
+        return new File(this.outputDir, this.outputFile + "_app");
+    }
+
+    @Override
+    public String toString() {
+        return this.outputFile + " (" + this.mainFile + ")";
+    }
+}
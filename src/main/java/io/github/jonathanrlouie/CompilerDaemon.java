@@ -0,0 +1,313 @@
+package io.github.jonathanrlouie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Properties;
+
+/**
+ * Long-lived process that keeps a warm Idris compiler class loader and
+ * compiles on behalf of {@link CompilerDaemonClient}. It is started in its
+ * own JVM, so it must not depend on any Maven classes. Requests are served
+ * one at a time. Successful compiles share the class loader, and with it
+ * whatever the compiler keeps in static fields; after a compile fails the
+ * class loader is replaced, so a half finished compile cannot leave state
+ * behind for the next one.
+ */
+public final class CompilerDaemon {
+    /**
+     * Frame type of a chunk of compiler standard output.
+     */
+    static final int STDOUT = 1;
+
+    /**
+     * Frame type of a chunk of compiler standard error.
+     */
+    static final int STDERR = 2;
+
+    /**
+     * Frame type of the compiler's exit code, which ends a response.
+     */
+    static final int EXIT = 3;
+
+    /**
+     * Exit code reported when the compiler throws instead of exiting.
+     */
+    static final int FAILURE = 1;
+
+    /**
+     * Number of random bytes in the token clients must present.
+     */
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * Number of leading command line arguments before the classpath.
+     */
+    private static final int FIXED_ARGS = 3;
+
+    /**
+     * Secret that clients must send before each request.
+     */
+    private final String token;
+
+    /**
+     * Name of the compiler's main class.
+     */
+    private final String mainClassName;
+
+    /**
+     * JAR files of the compiler.
+     */
+    private final URL[] classpath;
+
+    /**
+     * The daemon's log, which is the standard output it was started with.
+     */
+    private final PrintStream log;
+
+    /**
+     * Warm class loader of the compiler.
+     */
+    private URLClassLoader classLoader;
+
+    private CompilerDaemon(
+        final String token1,
+        final String mainClassName1,
+        final URL[] classpath1,
+        final PrintStream log1) {
+        this.token = token1;
+        this.mainClassName = mainClassName1;
+        this.classpath = classpath1;
+        this.log = log1;
+        this.classLoader = new URLClassLoader(classpath1, null);
+    }
+
+    /**
+     * Starts a compiler daemon.
+     * @param args The file to publish the port and token to, the idle
+     * timeout in milliseconds, the compiler main class and the compiler
+     * classpath.
+     * @throws Exception if the daemon could not be started.
+     */
+    public static void main(final String[] args) throws Exception {
+        File portFile = new File(args[0]);
+        int idleTimeout = Integer.parseInt(args[1]);
+        URL[] urls = new URL[args.length - FIXED_ARGS];
+        for (int i = FIXED_ARGS; i < args.length; i++) {
+            urls[i - FIXED_ARGS] = toUrl(new File(args[i]));
+        }
+
+        byte[] secret = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder token = new StringBuilder();
+        for (byte b : secret) {
+            token.append(String.format("%02x", b));
+        }
+
+        CompilerDaemon daemon = new CompilerDaemon(
+            token.toString(), args[2], urls, System.out);
+        // Without interception, a compiler that calls System.exit
+        // stops the daemon, and the client compiles in-process instead.
+        // The daemon's JVM only hosts compiles, so it is never uninstalled.
+        ExitInterceptor.install();
+        try (ServerSocket server = new ServerSocket(
+            0, 0, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(idleTimeout);
+            daemon.publish(portFile, server.getLocalPort());
+            daemon.serve(server);
+        } finally {
+            portFile.delete();
+        }
+        System.exit(0);
+    }
+
+    private static URL toUrl(final File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(
+                "Failed to convert into url " + file, e);
+        }
+    }
+
+    private void publish(final File portFile, final int port)
+        throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("port", Integer.toString(port));
+        properties.setProperty("token", this.token);
+        File tmp = new File(portFile.getPath() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+            properties.store(out, "Idris compiler daemon");
+        }
+        tmp.setReadable(false, false);
+        tmp.setReadable(true, true);
+        Files.move(tmp.toPath(), portFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void serve(final ServerSocket server) throws IOException {
+        while (true) {
+            try (Socket socket = server.accept()) {
+                handle(socket);
+            } catch (SocketTimeoutException e) {
+                // Idle for too long
+                return;
+            } catch (EOFException e) {
+                // Clients probe whether the daemon is alive by connecting
+                continue;
+            } catch (IOException e) {
+                // The client went away, keep serving other clients
+                log("Failed to serve a client", e);
+            }
+        }
+    }
+
+    private void handle(final Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+        if (!this.token.equals(in.readUTF())) {
+            return;
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(new PrintStream(new FrameOutputStream(out, STDOUT)));
+        System.setErr(new PrintStream(new FrameOutputStream(out, STDERR)));
+        int exitCode;
+        try {
+            exitCode = compile(args);
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        if (exitCode != 0) {
+            recycle();
+        }
+        synchronized (out) {
+            out.writeByte(EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+
+    private int compile(final String[] args) {
+        ClassLoader contextClassLoader =
+            Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(this.classLoader);
+        ExitInterceptor.intercept(true);
+        try {
+            Class<?> mainClass = this.classLoader.loadClass(this.mainClassName);
+            Method mainMethod = mainClass.getMethod("main", String[].class);
+            mainMethod.invoke(null, new Object[] {args});
+            return 0;
+        } catch (InvocationTargetException e) {
+            Integer status = ExitInterceptor.exitStatus(e);
+            if (status != null) {
+                return status;
+            }
+            log("Idris compiler failed", e.getCause());
+            System.err.println("Idris compiler failed: " + e.getCause());
+            return FAILURE;
+        } catch (ReflectiveOperationException e) {
+            log("Failed to start the Idris compiler", e);
+            System.err.println("Failed to start the Idris compiler: " + e);
+            return FAILURE;
+        } finally {
+            ExitInterceptor.intercept(false);
+            Thread.currentThread().setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    /**
+     * Replaces the compiler's class loader with a fresh one.
+     */
+    private void recycle() {
+        try {
+            this.classLoader.close();
+        } catch (IOException e) {
+            log("Failed to close the compiler class loader", e);
+        }
+        this.classLoader = new URLClassLoader(this.classpath, null);
+    }
+
+    /**
+     * Writes a timestamped message and stack trace to the daemon's log.
+     */
+    private void log(final String message, final Throwable e) {
+        synchronized (this.log) {
+            this.log.println(Instant.now() + " " + message);
+            e.printStackTrace(this.log);
+            this.log.flush();
+        }
+    }
+
+    /**
+     * Forwards everything written to it as frames of the given type.
+     */
+    private static final class FrameOutputStream extends OutputStream {
+        /**
+         * Stream of the client connection.
+         */
+        private final DataOutputStream out;
+
+        /**
+         * Frame type to write.
+         */
+        private final int type;
+
+        FrameOutputStream(final DataOutputStream out1, final int type1) {
+            this.out = out1;
+            this.type = type1;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+            synchronized (this.out) {
+                this.out.writeByte(this.type);
+                this.out.writeInt(len);
+                this.out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (this.out) {
+                this.out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package io.github.jonathanrlouie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Sends compile requests to a {@link CompilerDaemon}, starting one if no
+ * daemon is running for the same compiler, classpath and directory.
+ */
+public final class CompilerDaemonClient {
+    /**
+     * How long to wait for a new daemon to publish its port.
+     */
+    private static final long STARTUP_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * How long to wait between checks for a new daemon's port.
+     */
+    private static final long POLL_MILLIS = 50;
+
+    /**
+     * How long to wait for a connection to an existing daemon.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * Oldest Java specification version that accepts
+     * -Djava.security.manager=allow.
+     */
+    private static final int SECURITY_MANAGER_ALLOW_VERSION = 12;
+
+    /**
+     * Directory holding the port files of running daemons.
+     */
+    private final File daemonDir;
+
+    /**
+     * Milliseconds a daemon waits for a request before exiting.
+     */
+    private final int idleTimeout;
+
+    /**
+     * Milliseconds a compile may take on the daemon, or 0 for no limit.
+     */
+    private final long compileTimeout;
+
+    /**
+     * @param daemonDir1 Directory holding the port files of running daemons.
+     * @param idleTimeout1 Milliseconds a daemon waits for a request
+     * before exiting.
+     * @param compileTimeout1 Milliseconds a compile may take on the
+     * daemon, or 0 for no limit.
+     */
+    public CompilerDaemonClient(
+        final File daemonDir1,
+        final int idleTimeout1,
+        final long compileTimeout1) {
+        this.daemonDir = daemonDir1;
+        this.idleTimeout = idleTimeout1;
+        this.compileTimeout = compileTimeout1;
+    }
+
+    /**
+     * Compiles on a daemon, copying its output to this JVM's
+     * standard output and error.
+     * @param mainClassName Name of the compiler's main class.
+     * @param classpath JAR files of the compiler.
+     * @param args Arguments to the compiler.
+     * @param logger Logger for debugging.
+     * @return Exit code of the compiler.
+     * @throws IOException if no daemon could be reached, or it stopped or
+     * did not finish within the compile timeout, in which case the caller
+     * should compile in-process instead. A daemon that timed out is not
+     * reused by later compiles.
+     */
+    public int compile(
+        final String mainClassName,
+        final List<File> classpath,
+        final List<String> args,
+        final Log logger) throws IOException {
+        String key = daemonKey(mainClassName, classpath);
+        File portFile = new File(this.daemonDir, key + ".properties");
+        Properties daemon = connectable(portFile);
+        if (daemon == null) {
+            daemon = start(key, portFile, mainClassName, classpath, logger);
+        } else {
+            logger.debug("Reusing Idris compiler daemon " + key);
+        }
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(),
+                Integer.parseInt(daemon.getProperty("port"))),
+                CONNECT_TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(daemon.getProperty("token"));
+            out.writeInt(args.size());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            return readResponse(socket, new DataInputStream(
+                new BufferedInputStream(socket.getInputStream())));
+        } catch (SocketTimeoutException e) {
+            // Leave the wedged daemon to itself and start a fresh one next time
+            portFile.delete();
+            throw new IOException("Idris compiler daemon did not finish within "
+                + this.compileTimeout + "ms", e);
+        }
+    }
+
+    private int readResponse(final Socket socket, final DataInputStream in)
+        throws IOException {
+        long deadline = System.currentTimeMillis() + this.compileTimeout;
+        while (true) {
+            if (this.compileTimeout > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException();
+                }
+                socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+            }
+            int type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                throw new IOException(
+                    "Idris compiler daemon stopped before finishing", e);
+            }
+            if (type == CompilerDaemon.EXIT) {
+                System.out.flush();
+                System.err.flush();
+                return in.readInt();
+            }
+            byte[] chunk = new byte[in.readInt()];
+            in.readFully(chunk);
+            PrintStream target = type == CompilerDaemon.STDERR
+                ? System.err : System.out;
+            target.write(chunk, 0, chunk.length);
+        }
+    }
+
+    private Properties connectable(final File portFile) {
+        if (!portFile.isFile()) {
+            return null;
+        }
+        Properties daemon = new Properties();
+        try (InputStream in = Files.newInputStream(portFile.toPath())) {
+            daemon.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(),
+                Integer.parseInt(daemon.getProperty("port"))),
+                CONNECT_TIMEOUT_MILLIS);
+            return daemon;
+        } catch (IOException | RuntimeException e) {
+            // The daemon exited without cleaning up after itself
+            portFile.delete();
+            return null;
+        }
+    }
+
+    private Properties start(
+        final String key,
+        final File portFile,
+        final String mainClassName,
+        final List<File> classpath,
+        final Log logger) throws IOException {
+        this.daemonDir.mkdirs();
+        File lockFile = new File(this.daemonDir, key + ".lock");
+        return FileLocks.withLock(lockFile, () -> {
+            // Another build may have started the daemon while we waited
+            Properties daemon = connectable(portFile);
+            if (daemon != null) {
+                return daemon;
+            }
+
+            List<String> command = new ArrayList<>();
+            command.add(new File(System.getProperty("java.home"),
+                "bin" + File.separator + "java").getPath());
+            if (JavaCommand.javaVersion() >= SECURITY_MANAGER_ALLOW_VERSION) {
+                command.add("-Djava.security.manager=allow");
+            }
+            command.add("-cp");
+            command.add(pluginJar().getPath());
+            command.add(CompilerDaemon.class.getName());
+            command.add(portFile.getPath());
+            command.add(Integer.toString(this.idleTimeout));
+            command.add(mainClassName);
+            for (File jar : classpath) {
+                command.add(jar.getAbsolutePath());
+            }
+
+            logger.info("Starting Idris compiler daemon " + key);
+            File logFile = new File(this.daemonDir, key + ".log");
+            Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start();
+
+            long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+            while (System.currentTimeMillis() < deadline) {
+                daemon = connectable(portFile);
+                if (daemon != null) {
+                    return daemon;
+                }
+                if (!process.isAlive()) {
+                    throw new IOException("Idris compiler daemon exited with "
+                        + process.exitValue() + ", see " + logFile);
+                }
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted starting daemon", e);
+                }
+            }
+            process.destroy();
+            throw new IOException("Idris compiler daemon did not start within "
+                + STARTUP_TIMEOUT_MILLIS + "ms, see " + logFile);
+        });
+    }
+
+    /**
+     * A daemon is only reused by builds with the same JVM, compiler
+     * version and working directory, since the compiler resolves
+     * relative paths against the daemon's working directory.
+     */
+    private static String daemonKey(
+        final String mainClassName, final List<File> classpath) {
+        StringBuilder key = new StringBuilder()
+            .append(System.getProperty("java.home")).append('\n')
+            .append(new File("").getAbsolutePath()).append('\n')
+            .append(mainClassName);
+        for (File jar : classpath) {
+            key.append('\n').append(jar.getAbsolutePath())
+                .append(':').append(jar.length())
+                .append(':').append(jar.lastModified());
+        }
+        return IdrisSources.sha256(key.toString()).substring(0, 16);
+    }
+
+    private static File pluginJar() throws IOException {
+        try {
+            return new File(CompilerDaemon.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | RuntimeException e) {
+            throw new IOException("Failed to locate the plugin JAR", e);
+        }
+    }
+}
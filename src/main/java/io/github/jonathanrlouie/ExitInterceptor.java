@@ -0,0 +1,150 @@
+package io.github.jonathanrlouie;
+
+import java.security.Permission;
+
+/**
+ * Turns System.exit calls made by hosted programs into exceptions, so a
+ * program that exits does not take down the JVM hosting it. Only threads
+ * that opted in with {@link #intercept(boolean)}, and the threads they
+ * start afterwards, are intercepted. The security manager doing so is
+ * only installed while a hosted program runs, as exec-maven-plugin does.
+ */
+public final class ExitInterceptor {
+    private ExitInterceptor() { }
+
+    /**
+     * Whether System.exit calls of the current thread are intercepted.
+     */
+    private static final InheritableThreadLocal<Boolean> INTERCEPTING =
+        new InheritableThreadLocal<Boolean>() {
+            @Override
+            protected Boolean initialValue() {
+                return Boolean.FALSE;
+            }
+        };
+
+    /**
+     * Feature version from which the JVM refuses to set a security
+     * manager unless started with -Djava.security.manager=allow.
+     */
+    private static final int SECURITY_MANAGER_DISALLOWED_VERSION = 18;
+
+    /**
+     * Number of runs relying on the intercepting security manager, which
+     * is only installed while this is positive.
+     */
+    private static int users;
+
+    /**
+     * Checks whether this JVM lets a security manager be set at runtime.
+     * @return Whether System.exit calls can be intercepted.
+     */
+    public static boolean isSupported() {
+        return JavaCommand.javaVersion() < SECURITY_MANAGER_DISALLOWED_VERSION
+            || "allow".equals(System.getProperty("java.security.manager"));
+    }
+
+    /**
+     * Installs the security manager that intercepts System.exit for a run,
+     * unless another run installed it already. Every successful call must
+     * be paired with {@link #uninstall()} once the run is over. Fails on
+     * JVMs that disallow security managers, and when a security manager
+     * of someone else is in charge.
+     * @return Whether System.exit calls can be intercepted.
+     */
+    @SuppressWarnings({"deprecation", "removal"})
+    public static synchronized boolean install() {
+        if (users > 0) {
+            users++;
+            return true;
+        }
+        if (!isSupported() || System.getSecurityManager() != null) {
+            return false;
+        }
+        try {
+            System.setSecurityManager(new InterceptingSecurityManager());
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+        users = 1;
+        return true;
+    }
+
+    /**
+     * Ends a run's use of the security manager, restoring the JVM's
+     * previous state of having none once no run uses it.
+     */
+    @SuppressWarnings({"deprecation", "removal"})
+    public static synchronized void uninstall() {
+        if (users == 0) {
+            return;
+        }
+        users--;
+        if (users == 0) {
+            System.setSecurityManager(null);
+        }
+    }
+
+    /**
+     * Sets whether System.exit calls of the current thread, and of threads
+     * it starts from now on, are intercepted.
+     * @param intercepting Whether to intercept.
+     */
+    public static void intercept(final boolean intercepting) {
+        INTERCEPTING.set(intercepting);
+    }
+
+    /**
+     * Gets the exit status a throwable stands for, looking through the
+     * exceptions it was wrapped in.
+     * @param t Throwable thrown by a hosted program.
+     * @return The exit status, or null if the throwable is not an
+     * intercepted System.exit call.
+     */
+    public static Integer exitStatus(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ExitException) {
+                return ((ExitException) cause).status;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Allows everything except System.exit on intercepted threads.
+     */
+    @SuppressWarnings({"deprecation", "removal"})
+    private static final class InterceptingSecurityManager
+        extends SecurityManager {
+        @Override
+        public void checkPermission(final Permission perm) { }
+
+        @Override
+        public void checkPermission(
+            final Permission perm, final Object context) { }
+
+        @Override
+        public void checkExit(final int status) {
+            if (INTERCEPTING.get()) {
+                throw new ExitException(status);
+            }
+        }
+    }
+
+    /**
+     * Thrown instead of exiting the JVM when a program calls System.exit.
+     */
+    private static final class ExitException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Exit status the program asked for.
+         */
+        private final int status;
+
+        ExitException(final int status1) {
+            super("System.exit(" + status1 + ")");
+            this.status = status1;
+        }
+    }
+}
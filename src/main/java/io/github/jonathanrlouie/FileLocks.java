@@ -0,0 +1,91 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes work on directories shared by concurrent builds, such as the
+ * local repository. A file lock keeps other JVMs out, and an in-JVM lock
+ * keeps out other threads, which file locks do not exclude.
+ */
+public final class FileLocks {
+    private FileLocks() { }
+
+    /**
+     * How long to wait before retrying a file lock that another plugin
+     * class loader in this JVM holds.
+     */
+    private static final long RETRY_MILLIS = 50;
+
+    /**
+     * In-JVM locks keyed by absolute lock file path.
+     */
+    private static final Map<String, ReentrantLock> LOCKS =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Work done while holding a lock.
+     * @param <T> Type of the result.
+     */
+    public interface Action<T> {
+        /**
+         * Does the work.
+         * @return The result.
+         * @throws IOException if the work failed.
+         */
+        T run() throws IOException;
+    }
+
+    /**
+     * Runs an action while holding the lock on a file. Locks on the same
+     * file must not be nested.
+     * @param <T> Type of the result.
+     * @param lockFile File to lock, created if missing.
+     * @param action Work to do while holding the lock.
+     * @return The result of the action.
+     * @throws IOException if the lock could not be taken or the
+     * action failed.
+     */
+    public static <T> T withLock(final File lockFile, final Action<T> action)
+        throws IOException {
+        ReentrantLock local = LOCKS.computeIfAbsent(
+            lockFile.getAbsolutePath(), k -> new ReentrantLock());
+        local.lock();
+        try {
+            lockFile.getAbsoluteFile().getParentFile().mkdirs();
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = lock(channel)) {
+                return action.run();
+            }
+        } finally {
+            local.unlock();
+        }
+    }
+
+    private static FileLock lock(final FileChannel channel)
+        throws IOException {
+        while (true) {
+            try {
+                return channel.lock();
+            } catch (OverlappingFileLockException e) {
+                // Held by a copy of this class in another plugin realm
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                        "Interrupted waiting for a file lock");
+                }
+            }
+        }
+    }
+}
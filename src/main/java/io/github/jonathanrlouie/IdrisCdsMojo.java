@@ -0,0 +1,207 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.repository.RepositorySystem;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Goal that trains a class data sharing (CDS) archive for the Idris
+ * compiler. The compile goal uses the archive automatically when it
+ * forks the compiler, which cuts compiler startup time.
+ */
+@Mojo(name = "cds", threadSafe = true)
+public final class IdrisCdsMojo extends AbstractMojo {
+    /**
+     * The maven project.
+     */
+    @Parameter(property = "project", required = true, readonly = true)
+    private MavenProject project;
+
+    /**
+     * The file compiled to train the archive. If it does not exist, the
+     * archive is trained by printing the compiler version instead, which
+     * loads fewer classes.
+     */
+    @Parameter(defaultValue = "Main.idr", property = "mainFile")
+    private File mainFile;
+
+    /**
+     * The name of the main class of the Idris compiler JAR.
+     */
+    @Parameter(required = false, property = "maven.idris.className")
+    private String idrisClassName;
+
+    /**
+     * Idris 2 version to use.
+     */
+    @Parameter(defaultValue = "0.5.1", property = "idris.version")
+    private String idrisVersion;
+
+    /**
+     * Path to Idris installation to use instead of the artifact.
+     */
+    @Parameter(property = "idris.home")
+    private String idrisHome;
+
+    /**
+     * Lock file pinning the resolved idris-jvm artifacts. While the locked
+     * files are present and unchanged, they are used without resolving.
+     * It lives in the project's base directory rather than under target
+     * so that it survives mvn clean and can be committed with the pom.
+     */
+    @Parameter(
+        defaultValue = "${basedir}/idris-lock.properties",
+        property = "idris.lockFile")
+    private File lockFile;
+
+    /**
+     * Resolve the idris-jvm artifacts again and rewrite the lock file.
+     */
+    @Parameter(defaultValue = "false", property = "idris.lock.update")
+    private boolean updateLock;
+
+    /**
+     * JVM options of the training JVM, for example "-Xss8m".
+     */
+    @Parameter(property = "idris.jvmArgs")
+    private List<String> jvmArgs;
+
+    /**
+     * Train a new archive even if one exists for the compiler.
+     */
+    @Parameter(defaultValue = "false", property = "idris.cds.force")
+    private boolean force;
+
+    /**
+     * The Maven Session Object.
+     */
+    @Parameter(property = "session", required = true, readonly = true)
+    private MavenSession session;
+
+    /** Used to look up Artifacts in the remote repository. */
+    @Component
+    private RepositorySystem repositorySystem;
+
+    /**
+     * The entrypoint of the CDS Mojo.
+     */
+    public void execute() throws MojoExecutionException {
+        if (!CdsArchive.isSupported()) {
+            throw new MojoExecutionException("CDS archives need Java "
+                + CdsArchive.MIN_JAVA_VERSION + " or higher, but Maven runs on "
+                + JavaCommand.javaVersion());
+        }
+
+        BuildMetrics metrics = new BuildMetrics("cds");
+        List<File> classpath = getCompilerClasspath(this.idrisHome, metrics);
+        File archive = CdsArchive.archiveFor(classpath);
+        if (archive.isFile() && !this.force) {
+            getLog().info("CDS archive already exists: " + archive);
+            return;
+        }
+
+        File tmp = new File(archive.getPath() + ".tmp");
+        JavaCommand cmd = new JavaCommand();
+        cmd.addJvmArgs(this.jvmArgs);
+        cmd.addJvmArgs(Collections.singletonList(
+            "-XX:ArchiveClassesAtExit=" + tmp.getAbsolutePath()));
+        if (this.mainFile.isFile()) {
+            File trainingDir = new File(
+                this.project.getBuild().getDirectory(), "idris-cds-training");
+            cmd.addOption("-o", "main");
+            cmd.addOption("--output-dir", trainingDir.getAbsolutePath());
+            cmd.addOption("--build-dir",
+                new File(trainingDir, "build").getAbsolutePath());
+            cmd.addArgs(this.mainFile.getAbsolutePath());
+        } else {
+            cmd.addArgs("--version");
+        }
+
+        File lockFile = new File(archive.getPath() + ".lock");
+        try {
+            FileLocks.withLock(lockFile, () -> {
+                // Another module may have trained it while we waited
+                if (archive.isFile() && !this.force) {
+                    return null;
+                }
+                train(cmd, classpath, tmp, metrics);
+                Files.move(tmp.toPath(), archive.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+                return null;
+            });
+        } catch (IOException e) {
+            throw new MojoExecutionException("CDS training error: " + e, e);
+        } finally {
+            tmp.delete();
+        }
+        getLog().info("Created CDS archive " + archive);
+        getLog().info(metrics.summary());
+    }
+
+    private void train(
+        final JavaCommand cmd,
+        final List<File> classpath,
+        final File tmp,
+        final BuildMetrics metrics) throws IOException {
+        int exitCode;
+        try (BuildMetrics.Timer timer = metrics.start("train")) {
+            timer.outOfProcess();
+            exitCode = cmd.fork(
+                compilerMainClassName(this.idrisClassName),
+                classpath, getLog());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while training");
+        }
+        if (!tmp.isFile()) {
+            throw new IOException("Training exited with code "
+                + exitCode + " without writing a CDS archive");
+        }
+        if (exitCode != 0) {
+            getLog().warn("Training compile exited with code " + exitCode
+                + ", the archive may miss some compiler classes");
+        }
+    }
+
+    private List<File> getCompilerClasspath(
+        final String idrHome,
+        final BuildMetrics metrics) {
+        if (idrHome == null || idrHome.isEmpty()) {
+            return ClassLoaderUtils.getRemoteCompilerClasspath(
+                this.repositorySystem,
+                this.session,
+                this.idrisVersion,
+                openLock(),
+                metrics);
+        } else {
+            return ClassLoaderUtils.getLocalCompilerClasspath(
+                idrHome, metrics);
+        }
+    }
+
+    private String compilerMainClassName(final String override) {
+        if (override == null || override.isEmpty()) {
+            return "idris2.Main";
+        } else {
+            return override;
+        }
+    }
+
+    private ResolutionLock openLock() {
+        return ResolutionLock.open(this.lockFile, this.project, this.session,
+            this.idrisVersion, this.updateLock);
+    }
+}
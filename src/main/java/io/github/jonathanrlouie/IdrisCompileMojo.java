@@ -10,11 +10,36 @@ import org.apache.maven.project.MavenProject;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.repository.RepositorySystem;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Goal that compiles Idris 2 code.
  */
-@Mojo(name = "compile", defaultPhase = LifecyclePhase.COMPILE)
+@Mojo(
+    name = "compile",
+    defaultPhase = LifecyclePhase.COMPILE,
+    threadSafe = true)
 public final class IdrisCompileMojo extends AbstractMojo {
     /**
      * The maven project.
@@ -30,8 +55,9 @@ public final class IdrisCompileMojo extends AbstractMojo {
     private String outputFile;
 
     /**
-     * Location of build output directory relative to current directory.
-     * Equivalent to setting the --output-dir option of the Idris compiler.
+     * Location of build output directory relative to the project's base
+     * directory. Equivalent to setting the --output-dir option of the
+     * Idris compiler.
      */
     @Parameter(defaultValue = ".", property = "outputDir")
     private String outputDir;
@@ -62,6 +88,186 @@ public final class IdrisCompileMojo extends AbstractMojo {
     @Parameter(property = "idris.home")
     private String idrisHome;
 
+    /**
+     * Lock file pinning the resolved idris-jvm artifacts. While the locked
+     * files are present and unchanged, they are used without resolving.
+     * It lives in the project's base directory rather than under target
+     * so that it survives mvn clean and can be committed with the pom.
+     */
+    @Parameter(
+        defaultValue = "${basedir}/idris-lock.properties",
+        property = "idris.lockFile")
+    private File lockFile;
+
+    /**
+     * Resolve the idris-jvm artifacts again and rewrite the lock file.
+     */
+    @Parameter(defaultValue = "false", property = "idris.lock.update")
+    private boolean updateLock;
+
+    /**
+     * Skip the compiler when no Idris source, package file, compiler
+     * version or compiler option changed since the last build.
+     */
+    @Parameter(defaultValue = "true", property = "idris.incremental")
+    private boolean incremental;
+
+    /**
+     * Compile on a long-lived compiler daemon that keeps the compiler's
+     * classes loaded and warm between builds. Falls back to compiling
+     * in-process if the daemon cannot be reached.
+     */
+    @Parameter(defaultValue = "false", property = "idris.daemon")
+    private boolean daemon;
+
+    /**
+     * Seconds the compiler daemon waits for another compile before exiting.
+     */
+    @Parameter(defaultValue = "600", property = "idris.daemon.idleTimeout")
+    private int daemonIdleTimeout;
+
+    /**
+     * Seconds a compile may take on the compiler daemon before it is given
+     * up on and compiled in-process instead, or 0 for no limit. A daemon
+     * that took too long is not reused.
+     */
+    @Parameter(defaultValue = "1800", property = "idris.daemon.compileTimeout")
+    private int daemonCompileTimeout;
+
+    /**
+     * Run the compiler in a child JVM instead of Maven's own JVM, so it
+     * can be given its own heap size, garbage collector and other options.
+     * Takes precedence over the compiler daemon.
+     */
+    @Parameter(defaultValue = "false", property = "idris.fork")
+    private boolean fork;
+
+    /**
+     * JVM options of the child JVM when forking, for example "-Xmx4g",
+     * "-XX:+UseParallelGC" or "-XX:TieredStopAtLevel=1".
+     */
+    @Parameter(property = "idris.jvmArgs")
+    private List<String> jvmArgs;
+
+    /**
+     * Start forked compilers from the compiler's class data sharing
+     * archive, if one was created with the cds goal.
+     */
+    @Parameter(defaultValue = "true", property = "idris.cds")
+    private boolean useCds;
+
+    /**
+     * Directory of a build cache shared between builds and machines, such
+     * as a network mount. The output of every compile is stored there,
+     * keyed by a checksum of the sources, the compiler and the options,
+     * and restored instead of compiling when the same key comes up again.
+     * No cache is used if this is not set.
+     */
+    @Parameter(property = "idris.cache.dir")
+    private File cacheDirectory;
+
+    /**
+     * Megabytes the build cache may grow to before the least recently used
+     * outputs are evicted.
+     */
+    @Parameter(defaultValue = "1024", property = "idris.cache.maxSize")
+    private long cacheMaxSize;
+
+    /**
+     * Compile each unit in a child JVM whose heap is capped at
+     * maxHeapPercent of Maven's heap, so a compile that runs out of memory
+     * ends its own JVM rather than Maven's. A thread compiling in-process
+     * cannot be stopped, so in-process compiles are only watched: their
+     * peak heap, metaspace and garbage collection are logged at debug
+     * level, with a warning when they cross these limits.
+     */
+    @Parameter(defaultValue = "false", property = "idris.memory.guard")
+    private boolean memoryGuard;
+
+    /**
+     * Percentage of Maven's maximum heap that a guarded compile's child
+     * JVM gets, and that an in-process compile may still use after
+     * garbage collection before a warning is logged.
+     */
+    @Parameter(defaultValue = "90", property = "idris.memory.maxHeapPercent")
+    private int maxHeapPercent;
+
+    /**
+     * Megabytes of metaspace that a guarded compile's child JVM gets, and
+     * that an in-process compile may use before a warning is logged, or 0
+     * for no limit.
+     */
+    @Parameter(defaultValue = "0", property = "idris.memory.maxMetaspace")
+    private long maxMetaspace;
+
+    /**
+     * What to do when a guarded compile runs out of memory: "fail" fails
+     * the build, "fork" compiles again from an empty build directory in a
+     * child JVM with forkHeap.
+     */
+    @Parameter(defaultValue = "fork", property = "idris.memory.action")
+    private String memoryAction;
+
+    /**
+     * Maximum heap of the child JVM a guarded compile that ran out of
+     * memory is compiled again in, for example "4g". Defaults to twice
+     * Maven's maximum heap.
+     */
+    @Parameter(property = "idris.memory.forkHeap")
+    private String forkHeap;
+
+    /**
+     * Number of errors after which the compiler is stopped and the build
+     * fails, or 0 to let the compiler finish. Errors are logged with
+     * their file, line and column as the compiler reports them either
+     * way. Only compiles in a child JVM are stopped, since an in-process
+     * compiler ignores interrupts and would keep running; in-process and
+     * daemon compiles always finish.
+     */
+    @Parameter(defaultValue = "0", property = "idris.maxErrors")
+    private int maxErrors;
+
+    /**
+     * Idris programs to compile instead of the single program given by
+     * mainFile, outputFile and outputDir. Each compilationUnit element
+     * takes its own mainFile, outputFile and outputDir.
+     */
+    @Parameter
+    private List<CompilationUnit> compilationUnits;
+
+    /**
+     * Idris package files (.ipkg) to build instead of compilation units.
+     * Packages are built in dependency order, found from their depends
+     * fields and the imports of their modules, with packages that do not
+     * depend on each other built at the same time. Libraries are
+     * installed into packagePrefix, where the packages built after them
+     * find them, and packages with an executable are built. Packages
+     * whose .ipkg files share a directory also share its build directory,
+     * so they are built one after another. Packages are always compiled
+     * in a child JVM.
+     */
+    @Parameter
+    private List<File> packages;
+
+    /**
+     * Directory that packages are installed into, passed to the compiler
+     * as IDRIS2_PREFIX. Packages find the base libraries (prelude, base,
+     * contrib and so on) through IDRIS2_PACKAGE_PATH instead: those of
+     * the compiler and of idris.home, then those of the IDRIS2_PREFIX and
+     * IDRIS2_PACKAGE_PATH that Maven was started with.
+     */
+    @Parameter(
+        defaultValue = "${project.build.directory}/idris-prefix",
+        property = "idris.packagePrefix")
+    private File packagePrefix;
+
+    /**
+     * Maximum number of compilation units to compile at once.
+     * Defaults to the number of available processors.
+     */
+    @Parameter(property = "idris.parallelism")
+    private int parallelism;
+
     /**
      * The Maven Session Object.
      */
@@ -72,31 +278,761 @@ public final class IdrisCompileMojo extends AbstractMojo {
     @Component
     private RepositorySystem repositorySystem;
 
+    /**
+     * JAR files of the compiler, once resolved.
+     */
+    private List<File> compilerClasspath;
+
+    /**
+     * IDRIS2_PACKAGE_PATH of package builds, once found.
+     */
+    private String packagePath;
+
+    /**
+     * Time spent in each phase of this execution.
+     */
+    private BuildMetrics metrics;
+
+    /**
+     * Build cache of this execution, or null if there is none.
+     */
+    private OutputCache cache;
+
     /**
      * The entrypoint of the Compile Mojo.
      */
     public void execute() throws MojoExecutionException {
+        this.metrics = new BuildMetrics("compile");
+        if (this.cacheDirectory != null) {
+            this.cache = new OutputCache(
+                this.cacheDirectory, this.cacheMaxSize * 1024 * 1024);
+        }
+        try {
+            if (this.packages != null && !this.packages.isEmpty()) {
+                compilePackages();
+            } else {
+                compileAll(getCompilationUnits());
+            }
+        } finally {
+            if (this.cache != null) {
+                getLog().info(this.cache.stats());
+            }
+            getLog().info(this.metrics.summary());
+            File report = new File(this.project.getBuild().getDirectory(),
+                "idris-build-metrics.json");
+            try {
+                this.metrics.write(report);
+            } catch (IOException e) {
+                getLog().warn("Failed to write build metrics " + report, e);
+            }
+        }
+    }
+
+    private void compileAll(final List<CompilationUnit> units)
+        throws MojoExecutionException {
+        if (units.size() == 1) {
+            compile(units.get(0));
+            return;
+        }
+
+        ExecutorService executor = newExecutor(units.size());
+        try {
+            Map<Object, Future<?>> compiles = new LinkedHashMap<>();
+            for (CompilationUnit unit : units) {
+                compiles.put(unit, executor.submit(() -> {
+                    compile(unit);
+                    return null;
+                }));
+            }
+            awaitAll(compiles, "compilation units");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while compiling", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds the configured Idris packages wave by wave, so every package
+     * is built after the packages it depends on.
+     */
+    private void compilePackages() throws MojoExecutionException {
+        List<IdrisPackage> pkgs = new ArrayList<>();
+        for (File file : this.packages) {
+            File ipkg = file.isAbsolute()
+                ? file : new File(this.project.getBasedir(), file.getPath());
+            try {
+                pkgs.add(IdrisPackage.parse(ipkg));
+            } catch (IOException e) {
+                throw new MojoExecutionException(
+                    "Failed to read Idris package " + ipkg, e);
+            }
+        }
+        List<List<IdrisPackage>> waves;
+        try {
+            waves = new PackageGraph(pkgs).waves();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        getLog().info("Building " + pkgs.size() + " Idris packages in "
+            + waves.size() + " waves into " + this.packagePrefix);
+
+        int widest = 1;
+        for (List<IdrisPackage> wave : waves) {
+            widest = Math.max(widest, byDirectory(wave).size());
+        }
+        ExecutorService executor = newExecutor(widest);
+        try {
+            for (List<IdrisPackage> wave : waves) {
+                Map<Object, Future<?>> builds = new LinkedHashMap<>();
+                for (List<IdrisPackage> group : byDirectory(wave)) {
+                    List<String> names = new ArrayList<>();
+                    for (IdrisPackage pkg : group) {
+                        names.add(pkg.getName());
+                    }
+                    builds.put(String.join(", ", names), executor.submit(() -> {
+                        for (IdrisPackage pkg : group) {
+                            compilePackage(pkg);
+                        }
+                        return null;
+                    }));
+                }
+                awaitAll(builds, "packages");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while compiling", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Groups the packages of a wave by the directory of their .ipkg file,
+     * since the compiler writes to a build directory next to it.
+     */
+    private static List<List<IdrisPackage>> byDirectory(
+        final List<IdrisPackage> wave) {
+        Map<File, List<IdrisPackage>> groups = new LinkedHashMap<>();
+        for (IdrisPackage pkg : wave) {
+            File dir = pkg.getFile().getAbsoluteFile().getParentFile();
+            groups.computeIfAbsent(dir, d -> new ArrayList<>()).add(pkg);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Finds the package directories that package builds search after
+     * packagePrefix, i.e. the idris2-version directories of each prefix
+     * holding base libraries, followed by the IDRIS2_PACKAGE_PATH that
+     * Maven was started with.
+     */
+    private synchronized String getPackagePath() {
+        if (this.packagePath == null) {
+            List<File> prefixes = new ArrayList<>();
+            if (this.idrisHome != null && !this.idrisHome.isEmpty()) {
+                prefixes.add(new File(this.idrisHome).getAbsoluteFile());
+            }
+            for (File zip
+                : ClassLoaderUtils.getBaseLibZips(getCompilerClasspath())) {
+                for (File root : BaseLibExtractor.roots(zip)) {
+                    prefixes.add(new File(root, "lib"));
+                }
+            }
+            String userPrefix = System.getenv("IDRIS2_PREFIX");
+            if (userPrefix != null && !userPrefix.isEmpty()) {
+                prefixes.add(new File(userPrefix));
+            }
+
+            List<String> dirs = new ArrayList<>();
+            for (File prefix : prefixes) {
+                File[] versions = prefix.listFiles(f ->
+                    f.isDirectory() && f.getName().startsWith("idris2-"));
+                if (versions != null) {
+                    Arrays.sort(versions);
+                    for (File version : versions) {
+                        dirs.add(version.getPath());
+                    }
+                }
+            }
+            String userPackagePath = System.getenv("IDRIS2_PACKAGE_PATH");
+            if (userPackagePath != null && !userPackagePath.isEmpty()) {
+                dirs.add(userPackagePath);
+            }
+            this.packagePath = String.join(File.pathSeparator, dirs);
+        }
+        return this.packagePath;
+    }
+
+    private void compilePackage(final IdrisPackage pkg)
+        throws MojoExecutionException {
+        long start = System.nanoTime();
         try {
             JavaCommand cmd = new JavaCommand();
-            cmd.addOption("-o", this.outputFile);
-            cmd.addOption("--output-dir", this.outputDir);
-            cmd.addArgs(this.mainFile.getAbsolutePath());
-            ClassLoader cl = getCompilerClassLoader(this.idrisHome);
+            cmd.addArgs(pkg.getExecutable() == null ? "--install" : "--build",
+                pkg.getFile().getPath());
+            cmd.setEnvironment("IDRIS2_PREFIX",
+                this.packagePrefix.getAbsolutePath());
+            String path = getPackagePath();
+            if (!path.isEmpty()) {
+                cmd.setEnvironment("IDRIS2_PACKAGE_PATH", path);
+            }
+            cmd.setWorkingDirectory(pkg.getFile().getParentFile());
+            List<File> roots = Arrays.asList(
+                pkg.getSourceDir(), pkg.getFile().getParentFile());
+            IdrisDiagnostics diagnostics = newDiagnostics(cmd, roots);
+            runForked(cmd, compilerMainClassName(this.idrisClassName),
+                diagnostics);
+            diagnostics.flush();
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MojoExecutionException("Source error: " + e, e);
+        }
+        getLog().info("Built package " + pkg.getName() + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    private ExecutorService newExecutor(final int tasks) {
+        int threads = this.parallelism > 0
+            ? this.parallelism : Runtime.getRuntime().availableProcessors();
+        return Executors.newFixedThreadPool(Math.min(threads, tasks));
+    }
+
+    /**
+     * Waits for every task, then fails if any of them failed.
+     */
+    private void awaitAll(final Map<Object, Future<?>> tasks, final String what)
+        throws MojoExecutionException, InterruptedException {
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<Object, Future<?>> e : tasks.entrySet()) {
+            try {
+                e.getValue().get();
+            } catch (ExecutionException ex) {
+                getLog().error("Failed to compile " + e.getKey(),
+                    ex.getCause());
+                failures.add(e.getKey() + ": " + ex.getCause().getMessage());
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new MojoExecutionException(failures.size() + " of "
+                + tasks.size() + " " + what + " failed:\n  "
+                + String.join("\n  ", failures));
+        }
+    }
+
+    private List<CompilationUnit> getCompilationUnits() {
+        if (this.compilationUnits == null || this.compilationUnits.isEmpty()) {
+            return Collections.singletonList(resolve(new CompilationUnit(
+                this.mainFile, this.outputFile, this.outputDir)));
+        }
+        List<CompilationUnit> units = new ArrayList<>();
+        for (CompilationUnit unit : this.compilationUnits) {
+            units.add(resolve(unit));
+        }
+        return units;
+    }
+
+    /**
+     * Resolves the paths of a compilation unit against the project's base
+     * directory rather than the working directory, which modules built
+     * in parallel share.
+     */
+    private CompilationUnit resolve(final CompilationUnit unit) {
+        File basedir = this.project.getBasedir();
+        File main = unit.getMainFile();
+        if (!main.isAbsolute()) {
+            main = new File(basedir, main.getPath());
+        }
+        File output = new File(unit.getOutputDir());
+        if (!output.isAbsolute()) {
+            output = new File(basedir, unit.getOutputDir());
+        }
+        return new CompilationUnit(
+            main, unit.getOutputFile(), output.getPath());
+    }
+
+    private void compile(final CompilationUnit unit)
+        throws MojoExecutionException {
+        BuildIndex index = null;
+        File indexFile = getBuildIndexFile(unit);
+        if (this.incremental || this.cache != null) {
+            try (BuildMetrics.Timer timer = this.metrics.start("index")) {
+                index = BuildIndex.scan(
+                    getSourceRoots(unit), getBuildSettings(unit));
+            }
+        }
+        if (this.incremental) {
+            BuildIndex.Staleness staleness;
+            try (BuildMetrics.Timer timer = this.metrics.start("index")) {
+                staleness = index.compareTo(BuildIndex.load(indexFile));
+            }
+            if (staleness.isUpToDate() && unit.getAppOutputDir().isDirectory()) {
+                getLog().info("Nothing to compile for " + unit.getOutputFile()
+                    + " - all " + index.getModuleCount()
+                    + " Idris modules are up to date");
+                return;
+            }
+            getLog().info(staleness.getStaleModules() + " of "
+                + index.getModuleCount() + " Idris modules of "
+                + unit.getOutputFile() + " are stale");
+            for (String reason : staleness.getReasons()) {
+                getLog().info("  " + reason);
+            }
+        }
+
+        String cacheKey = null;
+        if (this.cache != null) {
+            cacheKey = getCacheKey(unit, index);
+            if (restoreFromCache(unit, cacheKey)) {
+                if (this.incremental) {
+                    saveIndex(index, indexFile);
+                }
+                return;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            JavaCommand cmd = newCompileCommand(unit);
             String mainClassName = compilerMainClassName(this.idrisClassName);
-            cmd.run(mainClassName, cl, getLog());
+            IdrisDiagnostics diagnostics =
+                newDiagnostics(cmd, getSourceRoots(unit));
+            if (this.fork) {
+                runForked(cmd, mainClassName, diagnostics);
+            } else if (this.memoryGuard) {
+                runGuarded(cmd, mainClassName, unit, diagnostics);
+            } else if (!this.daemon) {
+                runInProcess(cmd, mainClassName, unit, diagnostics);
+            } else if (!compileOnDaemon(cmd, mainClassName, diagnostics)) {
+                // Forget whatever the daemon reported before it stopped
+                diagnostics = newDiagnostics(cmd, getSourceRoots(unit));
+                runInProcess(cmd, mainClassName, unit, diagnostics);
+            }
+            diagnostics.flush();
+        } catch (MojoExecutionException e) {
+            throw e;
         } catch (Exception e) {
             throw new MojoExecutionException("Source error: " + e, e);
         }
+        getLog().info("Compiled " + unit.getOutputFile() + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+        if (cacheKey != null) {
+            try (BuildMetrics.Timer timer = this.metrics.start("cache")) {
+                this.cache.store(cacheKey, unit.getAppOutputDir());
+            } catch (IOException e) {
+                getLog().warn("Failed to store " + unit.getOutputFile()
+                    + " in the build cache", e);
+            }
+        }
+        if (this.incremental) {
+            saveIndex(index, indexFile);
+        }
+    }
+
+    private void saveIndex(final BuildIndex index, final File indexFile) {
+        try {
+            index.save(indexFile);
+        } catch (IOException e) {
+            getLog().warn("Failed to save build index " + indexFile, e);
+        }
+    }
+
+    private boolean restoreFromCache(
+        final CompilationUnit unit,
+        final String cacheKey) throws MojoExecutionException {
+        long start = System.nanoTime();
+        boolean hit;
+        try (BuildMetrics.Timer timer = this.metrics.start("cache")) {
+            hit = this.cache.restore(cacheKey, unit.getAppOutputDir());
+        } catch (IOException e) {
+            getLog().warn("Discarded the build cache entry of "
+                + unit.getOutputFile() + ", compiling instead: " + e);
+            return false;
+        }
+        if (hit) {
+            getLog().info("Restored " + unit.getOutputFile()
+                + " from the build cache in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + "ms (key " + cacheKey.substring(0, 12) + ")");
+        } else {
+            getLog().debug("Build cache miss for " + unit.getOutputFile()
+                + " (key " + cacheKey + ")");
+        }
+        return hit;
+    }
+
+    /**
+     * Computes the build cache key of a unit from everything its output
+     * depends on, including the base libraries the compiler reads.
+     * Paths are relative to the project, so checkouts in different places
+     * share outputs.
+     */
+    private String getCacheKey(
+        final CompilationUnit unit,
+        final BuildIndex index) throws MojoExecutionException {
+        StringBuilder key = new StringBuilder()
+            .append("sources=").append(index.getContentKey())
+            .append("\nidrisVersion=").append(this.idrisVersion)
+            .append("\nidrisClassName=")
+            .append(compilerMainClassName(this.idrisClassName))
+            .append("\noutputFile=").append(unit.getOutputFile())
+            .append("\nmainFile=").append(this.project.getBasedir().toPath()
+                .relativize(unit.getMainFile().toPath())
+                .toString().replace(File.separatorChar, '/'));
+        List<File> compilerClasspath = getCompilerClasspath();
+        for (File jar : compilerClasspath) {
+            key.append("\ncompiler=").append(IdrisSources.sha256Memoized(jar));
+        }
+        try {
+            for (File zip : ClassLoaderUtils.getBaseLibZips(compilerClasspath)) {
+                key.append("\nbaseLibs=").append(BaseLibExtractor.checksum(zip));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                "Failed to hash the Idris base libraries", e);
+        }
+        if (this.idrisHome != null && !this.idrisHome.isEmpty()) {
+            for (Map.Entry<String, File> lib
+                : ClassLoaderUtils.getLocalLibraries(this.idrisHome).entrySet()) {
+                key.append("\nlib=").append(lib.getKey()).append(':')
+                    .append(IdrisSources.sha256Memoized(lib.getValue()));
+            }
+        }
+        return IdrisSources.sha256(key.toString());
+    }
+
+    private JavaCommand newCompileCommand(final CompilationUnit unit) {
+        JavaCommand cmd = new JavaCommand();
+        cmd.addOption("-o", unit.getOutputFile());
+        cmd.addOption("--output-dir", unit.getOutputDir());
+        cmd.addOption("--build-dir", getBuildDir(unit).getPath());
+        cmd.addArgs(unit.getMainFile().getAbsolutePath());
+        return cmd;
+    }
+
+    /**
+     * Creates the diagnostics that the compiler's output goes through,
+     * stopping the compiler after maxErrors errors.
+     */
+    private IdrisDiagnostics newDiagnostics(
+        final JavaCommand cmd,
+        final List<File> sourceRoots) {
+        IdrisDiagnostics diagnostics =
+            new IdrisDiagnostics(getLog(), sourceRoots, this.maxErrors);
+        cmd.redirectLines(diagnostics::acceptOutput, diagnostics::acceptError);
+        cmd.setCancellation(diagnostics::isLimitReached);
+        return diagnostics;
+    }
+
+    /**
+     * Describes a failed compile along with the first error the compiler
+     * reported.
+     */
+    private static MojoExecutionException compileFailure(
+        final String reason,
+        final IdrisDiagnostics diagnostics) {
+        diagnostics.flush();
+        IdrisDiagnostics.Diagnostic first = diagnostics.getFirstError();
+        if (first == null) {
+            return new MojoExecutionException(reason);
+        }
+        return new MojoExecutionException(reason + " after "
+            + diagnostics.getErrorCount() + " errors, the first being "
+            + first);
+    }
+
+    private void runInProcess(
+        final JavaCommand cmd,
+        final String mainClassName,
+        final CompilationUnit unit,
+        final IdrisDiagnostics diagnostics) throws Exception {
+        // Units compiled at the same time get separate class loaders,
+        // since the compiler keeps global state in static fields
+        List<File> classpath = getCompilerClasspath();
+        ClassLoader cl;
+        try (BuildMetrics.Timer timer = this.metrics.start("classloader")) {
+            cl = ClassLoaderCache.get(classpath);
+        }
+        // Only watched, since the compiler ignores interrupts and could
+        // not be stopped; it runs until it finishes whatever the error count
+        MemoryGuard guard = MemoryGuard.start(
+            this.maxHeapPercent, this.maxMetaspace * 1024 * 1024);
+        cmd.setCancellation(null);
+        int exitCode;
+        boolean finished = false;
+        try (BuildMetrics.Timer timer = this.metrics.start("compile")) {
+            getLog().debug(ClassLoaderCache.stats());
+            exitCode = cmd.runIsolated(mainClassName, cl, getLog());
+            finished = true;
+            timer.addThreadUsage(cmd.getCpuNanos(), cmd.getAllocatedBytes());
+        } finally {
+            if (finished) {
+                ClassLoaderCache.release(cl);
+            } else {
+                // The compiler may still be running, so it is not reused
+                ClassLoaderCache.discard(cl);
+            }
+            guard.close();
+            getLog().debug("Memory of " + unit.getOutputFile() + ": "
+                + guard.summary());
+        }
+        if (guard.isTripped()) {
+            getLog().warn("Compiling " + unit.getOutputFile()
+                + " in-process took more memory than allowed: the "
+                + guard.getTripReason() + ". Compile it in a child JVM"
+                + " with -Didris.memory.guard=true.");
+        }
+        if (exitCode != 0) {
+            throw compileFailure(
+                "Idris compiler exited with code " + exitCode, diagnostics);
+        }
+    }
+
+    /**
+     * Compiles a unit in a child JVM whose heap is capped at
+     * maxHeapPercent of Maven's heap and which exits once it runs out of
+     * memory, then fails the build or compiles the unit again with
+     * forkHeap, from an empty build directory since the child JVM may have
+     * left partial files there.
+     */
+    private void runGuarded(
+        final JavaCommand cmd,
+        final String mainClassName,
+        final CompilationUnit unit,
+        final IdrisDiagnostics diagnostics) throws Exception {
+        String heap = (Runtime.getRuntime().maxMemory() / 100
+            * this.maxHeapPercent / (1024 * 1024)) + "m";
+        AtomicBoolean outOfMemory = new AtomicBoolean();
+        cmd.redirectLines(
+            watchOutOfMemory(diagnostics::acceptOutput, outOfMemory),
+            watchOutOfMemory(diagnostics::acceptError, outOfMemory));
+        cmd.addJvmArgs(memoryLimits(heap));
+        try {
+            runForked(cmd, mainClassName, diagnostics);
+            return;
+        } catch (MojoExecutionException e) {
+            if (!outOfMemory.get()) {
+                throw e;
+            }
+        }
+
+        String reason = "Compiling " + unit.getOutputFile()
+            + " ran out of memory in a child JVM with -Xmx" + heap;
+        if (!"fork".equalsIgnoreCase(this.memoryAction)) {
+            throw new MojoExecutionException(reason
+                + ". Raise idris.memory.maxHeapPercent along with Maven's"
+                + " heap, or compile again in a larger child JVM with"
+                + " -Didris.memory.action=fork.");
+        }
+        String retryHeap = this.forkHeap;
+        if (retryHeap == null || retryHeap.isEmpty()) {
+            retryHeap = (2 * Runtime.getRuntime().maxMemory() / (1024 * 1024))
+                + "m";
+        }
+        getLog().warn(reason + "; compiling again with -Xmx" + retryHeap);
+        deleteRecursively(getBuildDir(unit).toPath());
+        JavaCommand retry = newCompileCommand(unit);
+        IdrisDiagnostics retryDiagnostics =
+            newDiagnostics(retry, getSourceRoots(unit));
+        retry.addJvmArgs(memoryLimits(retryHeap));
+        runForked(retry, mainClassName, retryDiagnostics);
+        retryDiagnostics.flush();
+    }
+
+    /**
+     * Gets the JVM options of a guarded compile's child JVM, which exits
+     * as soon as it runs out of memory.
+     */
+    private List<String> memoryLimits(final String heap) {
+        List<String> args = new ArrayList<>();
+        args.add("-Xmx" + heap);
+        args.add("-XX:+ExitOnOutOfMemoryError");
+        if (this.maxMetaspace > 0) {
+            args.add("-XX:MaxMetaspaceSize=" + this.maxMetaspace + "m");
+        }
+        return args;
+    }
+
+    /**
+     * Passes output lines on, noting whether the JVM reported running out
+     * of memory.
+     */
+    private static Consumer<CharSequence> watchOutOfMemory(
+        final Consumer<CharSequence> lines,
+        final AtomicBoolean outOfMemory) {
+        return line -> {
+            if (line.toString().contains("java.lang.OutOfMemoryError")) {
+                outOfMemory.set(true);
+            }
+            lines.accept(line);
+        };
+    }
+
+    private void runForked(
+        final JavaCommand cmd,
+        final String mainClassName,
+        final IdrisDiagnostics diagnostics) throws Exception {
+        List<File> classpath = getCompilerClasspath();
+        cmd.addJvmArgs(this.jvmArgs);
+        if (this.useCds && CdsArchive.isSupported()) {
+            File archive = CdsArchive.archiveFor(classpath);
+            if (archive.isFile()) {
+                getLog().debug("Using CDS archive " + archive);
+                cmd.addJvmArgs(Collections.singletonList(
+                    "-XX:SharedArchiveFile=" + archive.getAbsolutePath()));
+            }
+        }
+        int exitCode;
+        try (BuildMetrics.Timer timer = this.metrics.start("compile")) {
+            timer.outOfProcess();
+            exitCode = cmd.fork(mainClassName, classpath, getLog());
+        } catch (CancellationException e) {
+            throw compileFailure("Stopped the Idris compiler", diagnostics);
+        }
+        if (exitCode != 0) {
+            throw compileFailure(
+                "Idris compiler exited with code " + exitCode, diagnostics);
+        }
+    }
+
+    private File getBuildIndexFile(final CompilationUnit unit) {
+        return new File(this.project.getBuild().getDirectory(),
+            "idris-build-index/" + unitKey(unit) + ".properties");
+    }
+
+    /**
+     * Gets the directory the compiler writes its intermediate files to,
+     * which is separate for every unit so parallel compiles never share it.
+     */
+    private File getBuildDir(final CompilationUnit unit) {
+        return new File(this.project.getBuild().getDirectory(),
+            "idris-build/" + unitKey(unit));
+    }
+
+    private static void deleteRecursively(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * Names the build index and build directory of a unit, which the
+     * watch goal shares.
+     * @param unit Unit with paths resolved against the base directory.
+     * @return The unit's output file and a hash of its output directory.
+     */
+    static String unitKey(final CompilationUnit unit) {
+        String outputDirHash = IdrisSources.sha256(
+            new File(unit.getOutputDir()).getAbsolutePath()).substring(0, 8);
+        return unit.getOutputFile() + "-" + outputDirHash;
     }
 
-    private ClassLoader getCompilerClassLoader(final String idrHome) {
+    private List<File> getSourceRoots(final CompilationUnit unit) {
+        List<File> roots = new ArrayList<>();
+        for (String root : this.project.getCompileSourceRoots()) {
+            roots.add(new File(root));
+        }
+        roots.add(unit.getMainFile().getAbsoluteFile().getParentFile());
+        return roots;
+    }
+
+    private Map<String, String> getBuildSettings(final CompilationUnit unit) {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("compiler", compilerFingerprint(this.idrisHome));
+        settings.put("idrisClassName",
+            compilerMainClassName(this.idrisClassName));
+        settings.put("mainFile", unit.getMainFile().getAbsolutePath());
+        settings.put("outputDir", unit.getOutputDir());
+        settings.put("outputFile", unit.getOutputFile());
+        return settings;
+    }
+
+    private String compilerFingerprint(final String idrHome) {
         if (idrHome == null || idrHome.isEmpty()) {
-            return ClassLoaderUtils.getRemoteCompilerClassLoader(
+            return "idris-jvm-compiler:" + this.idrisVersion;
+        }
+        // Local installations carry no version, so track the jars instead
+        StringBuilder fingerprint = new StringBuilder(idrHome);
+        File[] files = new File(idrHome).listFiles();
+        if (files != null) {
+            for (File f : new TreeSet<>(Arrays.asList(files))) {
+                if (f.getName().endsWith(".jar")) {
+                    fingerprint.append(';').append(f.getName())
+                        .append(':').append(f.length())
+                        .append(':').append(f.lastModified());
+                }
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    private boolean compileOnDaemon(
+        final JavaCommand cmd,
+        final String mainClassName,
+        final IdrisDiagnostics diagnostics) throws MojoExecutionException {
+        File daemonDir = new File(System.getProperty("java.io.tmpdir"),
+            "idris-maven-daemons-" + System.getProperty("user.name"));
+        CompilerDaemonClient client = new CompilerDaemonClient(
+            daemonDir, (int) TimeUnit.SECONDS.toMillis(this.daemonIdleTimeout),
+            TimeUnit.SECONDS.toMillis(this.daemonCompileTimeout));
+        List<File> classpath = getCompilerClasspath();
+        int exitCode;
+        // The client copies the daemon's output to System.out and System.err
+        OutputRouter.install();
+        try (BuildMetrics.Timer timer = this.metrics.start("compile");
+            OutputStream out = OutputRouter.lines(diagnostics::acceptOutput);
+            OutputStream err = OutputRouter.lines(diagnostics::acceptError)) {
+            OutputRouter.route(out, err);
+            timer.outOfProcess();
+            exitCode = client.compile(mainClassName,
+                classpath, cmd.getArgs(), getLog());
+        } catch (IOException e) {
+            getLog().warn("Idris compiler daemon unavailable, "
+                + "compiling in-process instead: " + e.getMessage());
+            return false;
+        } finally {
+            OutputRouter.unroute();
+            OutputRouter.uninstall();
+        }
+        if (exitCode != 0) {
+            throw compileFailure(
+                "Idris compiler exited with code " + exitCode, diagnostics);
+        }
+        return true;
+    }
+
+    /**
+     * Resolves the compiler once for all compilation units.
+     */
+    private synchronized List<File> getCompilerClasspath() {
+        if (this.compilerClasspath == null) {
+            this.compilerClasspath = resolveCompilerClasspath(this.idrisHome);
+        }
+        return this.compilerClasspath;
+    }
+
+    private List<File> resolveCompilerClasspath(final String idrHome) {
+        if (idrHome == null || idrHome.isEmpty()) {
+            return ClassLoaderUtils.getRemoteCompilerClasspath(
                 this.repositorySystem,
                 this.session,
-                this.idrisVersion);
+                this.idrisVersion,
+                openLock(),
+                this.metrics);
         } else {
-            return ClassLoaderUtils.getLocalCompilerClassLoader(idrHome);
+            return ClassLoaderUtils.getLocalCompilerClasspath(
+                idrHome, this.metrics);
         }
     }
 
@@ -107,4 +1043,9 @@ public final class IdrisCompileMojo extends AbstractMojo {
             return override;
         }
     }
+
+    private ResolutionLock openLock() {
+        return ResolutionLock.open(this.lockFile, this.project, this.session,
+            this.idrisVersion, this.updateLock);
+    }
 }
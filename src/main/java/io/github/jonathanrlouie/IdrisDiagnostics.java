@@ -0,0 +1,332 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Reads the output of the Idris compiler line by line as it is written,
+ * turning its errors and warnings into Maven build messages such as
+ * "/src/Main.idr:[3,8] Undefined name foo." as soon as their location is
+ * known. Other lines, such as progress and the source excerpts under a
+ * message, go to the log unchanged. Idris writes a message first and its
+ * location on a later line, e.g.
+ * <pre>
+ * Error: While processing right hand side of main. Undefined name foo.
+ *
+ * Main:3:8--3:11
+ *  3 | main = foo
+ *             ^^^
+ * </pre>
+ * while older compilers write the location first, followed by the message
+ * on the same line. Lines may arrive from several threads.
+ */
+public final class IdrisDiagnostics {
+    /**
+     * Matches the start of a message, e.g. "Error: Undefined name foo."
+     */
+    private static final Pattern MESSAGE_PATTERN =
+        Pattern.compile("^(Error|Warning):\\s*(.*)$");
+
+    /**
+     * Matches a location, e.g. "Main.idr:3:8--3:11", optionally followed
+     * by a message.
+     */
+    private static final Pattern LOCATION_PATTERN =
+        Pattern.compile("^(.+?):(\\d+):(\\d+)--(\\d+):(\\d+)(?::\\s*(.*))?$");
+
+    /**
+     * Log the messages and other lines are written to.
+     */
+    private final Log log;
+
+    /**
+     * Directories that relative source paths are resolved against.
+     */
+    private final List<File> sourceRoots;
+
+    /**
+     * Number of errors after which {@link #isLimitReached()} holds, or 0
+     * for no limit.
+     */
+    private final int maxErrors;
+
+    /**
+     * Messages reported so far, in order.
+     */
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    /**
+     * Number of errors reported so far.
+     */
+    private volatile int errorCount;
+
+    /**
+     * Message waiting for its location, or null.
+     */
+    private Diagnostic pending;
+
+    /**
+     * Whether a blank line followed the pending message, after which only
+     * its location may follow.
+     */
+    private boolean pendingEnded;
+
+    /**
+     * @param log1 Log the messages and other lines are written to.
+     * @param sourceRoots1 Directories that relative source paths are
+     * resolved against.
+     * @param maxErrors1 Number of errors after which
+     * {@link #isLimitReached()} holds, or 0 for no limit.
+     */
+    public IdrisDiagnostics(
+        final Log log1,
+        final List<File> sourceRoots1,
+        final int maxErrors1) {
+        this.log = log1;
+        this.sourceRoots = sourceRoots1;
+        this.maxErrors = maxErrors1;
+    }
+
+    /**
+     * Reads a line of the compiler's standard output.
+     * @param line The line without its line terminator.
+     */
+    public void acceptOutput(final CharSequence line) {
+        accept(line.toString(), false);
+    }
+
+    /**
+     * Reads a line of the compiler's standard error.
+     * @param line The line without its line terminator.
+     */
+    public void acceptError(final CharSequence line) {
+        accept(line.toString(), true);
+    }
+
+    private synchronized void accept(final String line, final boolean stderr) {
+        Matcher location = LOCATION_PATTERN.matcher(line);
+        if (location.matches()) {
+            String message = location.group(6);
+            if (message != null && !message.isEmpty()) {
+                flush();
+                Diagnostic diagnostic = new Diagnostic(
+                    message.startsWith("Warning") ? "Warning" : "Error",
+                    message);
+                locate(diagnostic, location);
+                report(diagnostic);
+                return;
+            }
+            if (this.pending != null) {
+                locate(this.pending, location);
+                report(this.pending);
+                this.pending = null;
+                return;
+            }
+        }
+
+        Matcher message = MESSAGE_PATTERN.matcher(line);
+        if (message.matches()) {
+            flush();
+            this.pending = new Diagnostic(message.group(1), message.group(2));
+            this.pendingEnded = false;
+        } else if (this.pending != null && line.trim().isEmpty()) {
+            this.pendingEnded = true;
+        } else if (this.pending != null && !this.pendingEnded) {
+            this.pending.append(line);
+        } else {
+            flush();
+            if (stderr) {
+                this.log.warn(line);
+            } else {
+                this.log.info(line);
+            }
+        }
+    }
+
+    /**
+     * Reports a message still waiting for its location without one, for
+     * when the compiler finished.
+     */
+    public synchronized void flush() {
+        if (this.pending != null) {
+            report(this.pending);
+            this.pending = null;
+        }
+    }
+
+    private void report(final Diagnostic diagnostic) {
+        this.diagnostics.add(diagnostic);
+        if (diagnostic.isError()) {
+            this.errorCount++;
+            this.log.error(diagnostic.toString());
+        } else {
+            this.log.warn(diagnostic.toString());
+        }
+    }
+
+    private void locate(final Diagnostic diagnostic, final Matcher location) {
+        diagnostic.file = resolve(location.group(1));
+        diagnostic.line = Integer.parseInt(location.group(2));
+        diagnostic.column = Integer.parseInt(location.group(3));
+    }
+
+    /**
+     * Finds the source file of a location, which the compiler gives
+     * relative to where it runs or as a module name.
+     */
+    private File resolve(final String path) {
+        File file = new File(path);
+        if (file.isAbsolute()) {
+            return file;
+        }
+        for (File root : this.sourceRoots) {
+            File source = new File(root, path);
+            if (source.isFile()) {
+                return source.getAbsoluteFile();
+            }
+            source = new File(root,
+                path.replace('.', File.separatorChar) + ".idr");
+            if (source.isFile()) {
+                return source.getAbsoluteFile();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Checks whether the compiler reported as many errors as it may.
+     * @return Whether the error limit was reached.
+     */
+    public boolean isLimitReached() {
+        return this.maxErrors > 0 && this.errorCount >= this.maxErrors;
+    }
+
+    /**
+     * Gets the number of errors reported so far.
+     * @return Number of errors.
+     */
+    public int getErrorCount() {
+        return this.errorCount;
+    }
+
+    /**
+     * Gets the messages reported so far.
+     * @return Errors and warnings in the order they were reported.
+     */
+    public synchronized List<Diagnostic> getDiagnostics() {
+        return new ArrayList<>(this.diagnostics);
+    }
+
+    /**
+     * Gets the first error reported.
+     * @return The first error, or null if there was none.
+     */
+    public synchronized Diagnostic getFirstError() {
+        for (Diagnostic diagnostic : this.diagnostics) {
+            if (diagnostic.isError()) {
+                return diagnostic;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An error or warning of the compiler.
+     */
+    public static final class Diagnostic {
+        /**
+         * "Error" or "Warning".
+         */
+        private final String severity;
+
+        /**
+         * The message, whose lines are separated by line feeds.
+         */
+        private final StringBuilder message;
+
+        /**
+         * Source file, or null if the location is unknown.
+         */
+        private File file;
+
+        /**
+         * First line, starting at 1.
+         */
+        private int line;
+
+        /**
+         * First column, starting at 1.
+         */
+        private int column;
+
+        Diagnostic(final String severity1, final String message1) {
+            this.severity = severity1;
+            this.message = new StringBuilder(message1);
+        }
+
+        private void append(final String text) {
+            if (this.message.length() > 0) {
+                this.message.append('\n');
+            }
+            this.message.append(text.trim());
+        }
+
+        /**
+         * Checks whether this is an error rather than a warning.
+         * @return Whether this is an error.
+         */
+        public boolean isError() {
+            return "Error".equals(this.severity);
+        }
+
+        /**
+         * Gets the message.
+         * @return The message, whose lines are separated by line feeds.
+         */
+        public String getMessage() {
+            return this.message.toString();
+        }
+
+        /**
+         * Gets the source file.
+         * @return Source file, or null if the location is unknown.
+         */
+        public File getFile() {
+            return this.file;
+        }
+
+        /**
+         * Gets the line the message is about.
+         * @return Line starting at 1, or 0 if the location is unknown.
+         */
+        public int getLine() {
+            return this.line;
+        }
+
+        /**
+         * Gets the column the message is about.
+         * @return Column starting at 1, or 0 if the location is unknown.
+         */
+        public int getColumn() {
+            return this.column;
+        }
+
+        /**
+         * Formats the message as Maven's compiler plugin does.
+         * @return e.g. "/src/Main.idr:[3,8] Undefined name foo."
+         */
+        @Override
+        public String toString() {
+            if (this.file == null) {
+                return getMessage();
+            }
+            return this.file.getPath() + ":[" + this.line + "," + this.column
+                + "] " + getMessage();
+        }
+    }
+}
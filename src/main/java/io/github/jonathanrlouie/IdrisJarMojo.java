@@ -0,0 +1,246 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Goal that packages the output of the Idris compiler into a single JAR.
+ * The classes of JARs the compiler wrote and any loose files next to them
+ * are read in place and written in a reproducible order with a fixed
+ * timestamp, so the same compiler output always gives the same JAR.
+ */
+@Mojo(
+    name = "jar",
+    defaultPhase = LifecyclePhase.PACKAGE,
+    threadSafe = true)
+public final class IdrisJarMojo extends AbstractMojo {
+    /**
+     * The maven project.
+     */
+    @Parameter(property = "project", required = true, readonly = true)
+    private MavenProject project;
+
+    /**
+     * Name of the compiled application, as given to the compile goal.
+     */
+    @Parameter(defaultValue = "main", property = "outputFile")
+    private String outputFile;
+
+    /**
+     * Location of build output directory, as given to the compile goal.
+     * A relative path is resolved against the project's base directory.
+     */
+    @Parameter(defaultValue = ".", property = "outputDir")
+    private String outputDir;
+
+    /**
+     * The JAR to write. Defaults to outputFile.jar in the project's build
+     * directory.
+     */
+    @Parameter(property = "idris.jar.file")
+    private File jarFile;
+
+    /**
+     * Class name of the application's main class, written to the manifest.
+     * Defaults to the Main-Class of the JAR written by the compiler.
+     */
+    @Parameter(property = "mainClass")
+    private String mainClassName;
+
+    /**
+     * Deflate level of the entries, from 0 to store all entries to 9.
+     * Entries that are already compressed, such as nested JARs and images,
+     * are always stored.
+     */
+    @Parameter(
+        defaultValue = "" + Deflater.DEFAULT_COMPRESSION,
+        property = "idris.jar.level")
+    private int compressionLevel;
+
+    /**
+     * Timestamp of all entries, as an ISO 8601 date-time or seconds since
+     * the epoch. Defaults to 1980-01-01T00:00:00Z.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
+    /**
+     * Number of threads compressing entries.
+     * Defaults to the number of available processors.
+     */
+    @Parameter(property = "idris.jar.threads")
+    private int threads;
+
+    /**
+     * The entrypoint of the Jar Mojo.
+     */
+    public void execute() throws MojoExecutionException {
+        File appDir = new File(resolve(this.outputDir),
+            this.outputFile + "_app");
+        if (!appDir.isDirectory()) {
+            throw new MojoExecutionException("No compiler output in " + appDir
+                + ". Run the compile goal first.");
+        }
+
+        if (this.jarFile == null) {
+            this.jarFile = new File(this.project.getBuild().getDirectory(),
+                this.outputFile + ".jar");
+        }
+
+        long start = System.nanoTime();
+        ReproducibleJarWriter writer = new ReproducibleJarWriter();
+        writer.setLevel(this.compressionLevel);
+        if (this.threads > 0) {
+            writer.setThreads(this.threads);
+        }
+        // Like other plugins, ignore a single character such as "0",
+        // which disables reproducible timestamps
+        if (this.outputTimestamp != null && this.outputTimestamp.length() > 1) {
+            writer.setTimestamp(parseTimestamp(this.outputTimestamp));
+        }
+        if (this.mainClassName != null && !this.mainClassName.isEmpty()) {
+            writer.getManifestAttributes()
+                .put(Attributes.Name.MAIN_CLASS, this.mainClassName);
+        }
+
+        List<ZipFile> jars = new ArrayList<>();
+        try {
+            for (File file : listFiles(appDir)) {
+                String name = appDir.toPath().relativize(file.toPath())
+                    .toString().replace(File.separatorChar, '/');
+                if (name.endsWith(".jar")) {
+                    ZipFile jar = new ZipFile(file);
+                    jars.add(jar);
+                    addJar(writer, jar);
+                } else {
+                    writer.add(name, () -> Files.newInputStream(file.toPath()));
+                }
+            }
+            writer.write(this.jarFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                "Failed to write JAR " + this.jarFile, e);
+        } finally {
+            for (ZipFile jar : jars) {
+                try {
+                    jar.close();
+                } catch (IOException e) {
+                    getLog().debug("Failed to close " + jar.getName(), e);
+                }
+            }
+        }
+        getLog().info("Packaged " + writer.size() + " entries into "
+            + this.jarFile + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    private File resolve(final String path) {
+        File file = new File(path);
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(this.project.getBasedir(), path);
+    }
+
+    /**
+     * Adds the entries of a JAR written by the compiler, taking its
+     * Main-Class if none was configured. Signatures of the JAR would not
+     * match the new JAR and are dropped.
+     */
+    private void addJar(final ReproducibleJarWriter writer, final ZipFile jar)
+        throws IOException {
+        Attributes attributes = writer.getManifestAttributes();
+        ZipEntry manifestEntry = jar.getEntry(JarFile.MANIFEST_NAME);
+        if (manifestEntry != null
+            && !attributes.containsKey(Attributes.Name.MAIN_CLASS)) {
+            Manifest manifest;
+            try (InputStream in = jar.getInputStream(manifestEntry)) {
+                manifest = new Manifest(in);
+            }
+            String mainClass = manifest.getMainAttributes()
+                .getValue(Attributes.Name.MAIN_CLASS);
+            if (mainClass != null) {
+                attributes.put(Attributes.Name.MAIN_CLASS, mainClass);
+            }
+        }
+        Enumeration<? extends ZipEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (entry.isDirectory() || isSignature(name)) {
+                continue;
+            }
+            if (!writer.add(name, () -> jar.getInputStream(entry))) {
+                getLog().debug("Skipping duplicate entry " + name
+                    + " of " + jar.getName());
+            }
+        }
+    }
+
+    private static boolean isSignature(final String name) {
+        String upper = name.toUpperCase(Locale.ROOT);
+        return upper.startsWith("META-INF/")
+            && (upper.endsWith(".SF") || upper.endsWith(".RSA")
+                || upper.endsWith(".DSA") || upper.endsWith(".EC"));
+    }
+
+    /**
+     * Lists the regular files under a directory in name order, so that
+     * entries found in several places are always taken from the same one.
+     */
+    private static List<File> listFiles(final File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            return paths
+                .filter(Files::isRegularFile)
+                .sorted()
+                .map(Path::toFile)
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Parses a timestamp the way project.build.outputTimestamp is given:
+     * an ISO 8601 date-time or seconds since the epoch.
+     */
+    private static ZonedDateTime parseTimestamp(final String timestamp)
+        throws MojoExecutionException {
+        try {
+            if (timestamp.chars().allMatch(Character::isDigit)) {
+                return Instant.ofEpochSecond(Long.parseLong(timestamp))
+                    .atZone(ZoneOffset.UTC);
+            }
+            return OffsetDateTime.parse(timestamp).toZonedDateTime();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new MojoExecutionException(
+                "Invalid outputTimestamp " + timestamp, e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parts of an Idris package description (.ipkg file) that decide how
+ * packages are built and in which order: the package name, the packages
+ * it depends on, its modules, source directory and executable.
+ */
+public final class IdrisPackage {
+    /**
+     * Matches the package declaration, e.g. "package contrib".
+     */
+    private static final Pattern PACKAGE_PATTERN =
+        Pattern.compile("^package\\s+([\\w\\-.]+)");
+
+    /**
+     * Matches the start of a field, e.g. "depends = base".
+     */
+    private static final Pattern FIELD_PATTERN =
+        Pattern.compile("^([a-z]+)\\s*=(.*)$");
+
+    /**
+     * Matches the package name at the start of a dependency, which may
+     * be followed by a version bound, e.g. "contrib >= 0.5".
+     */
+    private static final Pattern DEPENDENCY_PATTERN =
+        Pattern.compile("^\\s*([\\w\\-.]+)");
+
+    /**
+     * The package description file.
+     */
+    private final File file;
+
+    /**
+     * Name of the package.
+     */
+    private final String name;
+
+    /**
+     * Names of the packages this package depends on.
+     */
+    private final List<String> depends;
+
+    /**
+     * Names of the modules of this package.
+     */
+    private final List<String> modules;
+
+    /**
+     * Directory of the package's sources.
+     */
+    private final File sourceDir;
+
+    /**
+     * Name of the executable the package builds, or null for a library.
+     */
+    private final String executable;
+
+    private IdrisPackage(
+        final File file1,
+        final String name1,
+        final List<String> depends1,
+        final List<String> modules1,
+        final File sourceDir1,
+        final String executable1) {
+        this.file = file1;
+        this.name = name1;
+        this.depends = depends1;
+        this.modules = modules1;
+        this.sourceDir = sourceDir1;
+        this.executable = executable1;
+    }
+
+    /**
+     * Parses a package description file.
+     * @param file The .ipkg file.
+     * @return The package.
+     * @throws IOException if the file could not be read or has no
+     * package declaration.
+     */
+    public static IdrisPackage parse(final File file) throws IOException {
+        String name = null;
+        Map<String, StringBuilder> fields = new LinkedHashMap<>();
+        StringBuilder current = null;
+        for (String line : Files.readAllLines(
+            file.toPath(), StandardCharsets.UTF_8)) {
+            String code = stripComment(line);
+            if (code.trim().isEmpty()) {
+                continue;
+            }
+            Matcher pkg = PACKAGE_PATTERN.matcher(code);
+            Matcher field = FIELD_PATTERN.matcher(code);
+            if (pkg.find()) {
+                name = pkg.group(1);
+                current = null;
+            } else if (field.find()) {
+                current = new StringBuilder(field.group(2));
+                fields.put(field.group(1), current);
+            } else if (current != null
+                && Character.isWhitespace(code.charAt(0))) {
+                // Values continue on indented lines
+                current.append(' ').append(code);
+            } else {
+                current = null;
+            }
+        }
+        if (name == null) {
+            throw new IOException("No package declaration in " + file);
+        }
+
+        List<String> depends = new ArrayList<>();
+        for (String dependency : list(fields.get("depends"))) {
+            Matcher m = DEPENDENCY_PATTERN.matcher(dependency);
+            if (m.find()) {
+                depends.add(m.group(1));
+            }
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        String sourceDir = unquote(value(fields.get("sourcedir")));
+        String executable = unquote(value(fields.get("executable")));
+        return new IdrisPackage(
+            file.getAbsoluteFile(),
+            name,
+            Collections.unmodifiableList(depends),
+            Collections.unmodifiableList(list(fields.get("modules"))),
+            sourceDir == null ? dir : new File(dir, sourceDir),
+            executable);
+    }
+
+    private static String stripComment(final String line) {
+        int comment = -1;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && line.startsWith("--", i)) {
+                comment = i;
+                break;
+            }
+        }
+        return comment < 0 ? line : line.substring(0, comment);
+    }
+
+    private static List<String> list(final StringBuilder value) {
+        List<String> items = new ArrayList<>();
+        if (value != null) {
+            for (String item : value.toString().split(",")) {
+                if (!item.trim().isEmpty()) {
+                    items.add(item.trim());
+                }
+            }
+        }
+        return items;
+    }
+
+    private static String value(final StringBuilder value) {
+        return value == null ? null : value.toString().trim();
+    }
+
+    private static String unquote(final String value) {
+        if (value != null && value.length() >= 2
+            && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    /**
+     * Gets the package description file.
+     * @return The absolute .ipkg file.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Gets the name of the package.
+     * @return Name of the package.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the packages this package depends on, without version bounds.
+     * @return Names of the packages in declaration order.
+     */
+    public List<String> getDepends() {
+        return this.depends;
+    }
+
+    /**
+     * Gets the modules of this package.
+     * @return Module names in declaration order.
+     */
+    public List<String> getModules() {
+        return this.modules;
+    }
+
+    /**
+     * Gets the directory of the package's sources, which is the directory
+     * of the package file unless a sourcedir is given.
+     * @return The absolute source directory.
+     */
+    public File getSourceDir() {
+        return this.sourceDir;
+    }
+
+    /**
+     * Gets the name of the executable the package builds.
+     * @return Name of the executable, or null for a library.
+     */
+    public String getExecutable() {
+        return this.executable;
+    }
+
+    /**
+     * Finds the source file of a module of this package.
+     * @param module Module name, e.g. "Data.Tree".
+     * @return The .idr or .lidr file, or null if there is none.
+     */
+    public File findSource(final String module) {
+        String path = module.replace('.', File.separatorChar);
+        for (String extension : new String[] {".idr", ".lidr"}) {
+            File source = new File(this.sourceDir, path + extension);
+            if (source.isFile()) {
+                return source;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + " (" + this.file + ")";
+    }
+}
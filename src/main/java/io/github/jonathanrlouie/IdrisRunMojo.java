@@ -15,6 +15,17 @@ import org.apache.maven.execution.MavenSession;
 import org.apache.maven.repository.RepositorySystem;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Goal that runs Idris 2 code.
@@ -50,11 +61,101 @@ public final class IdrisRunMojo extends AbstractMojo {
     private String idrisHome;
 
     /**
-     * Path to the compiled JAR file of the application.
+     * Lock file pinning the resolved idris-jvm artifacts. While the locked
+     * files are present and unchanged, they are used without resolving.
+     * It lives in the project's base directory rather than under target
+     * so that it survives mvn clean and can be committed with the pom.
      */
-    @Parameter(defaultValue = "./main_app/main.jar", property = "appJar")
+    @Parameter(
+        defaultValue = "${basedir}/idris-lock.properties",
+        property = "idris.lockFile")
+    private File lockFile;
+
+    /**
+     * Resolve the idris-jvm artifacts again and rewrite the lock file.
+     */
+    @Parameter(defaultValue = "false", property = "idris.lock.update")
+    private boolean updateLock;
+
+    /**
+     * Path to the compiled JAR file of the application. Relative paths are
+     * resolved against the project's base directory.
+     */
+    @Parameter(
+        defaultValue = "${project.basedir}/main_app/main.jar",
+        property = "appJar")
     private File appJar;
 
+    /**
+     * Command line arguments passed to the application.
+     */
+    @Parameter(property = "idris.run.args")
+    private List<String> args;
+
+    /**
+     * File the application reads as its standard input. The file is
+     * streamed to the application without being read into memory, and a
+     * forked application reads it directly.
+     */
+    @Parameter(property = "idris.run.stdin")
+    private File inputFile;
+
+    /**
+     * Seconds the application may run in-process before it is
+     * interrupted and the build fails, or 0 for no limit.
+     */
+    @Parameter(defaultValue = "0", property = "idris.run.timeout")
+    private long timeout;
+
+    /**
+     * File to write the application's standard output to instead of
+     * the Maven log. A forked application writes to it directly.
+     */
+    @Parameter(property = "idris.run.stdout")
+    private File stdoutFile;
+
+    /**
+     * File to write the application's standard error to instead of
+     * the Maven log. A forked application writes to it directly.
+     */
+    @Parameter(property = "idris.run.stderr")
+    private File stderrFile;
+
+    /**
+     * Run the application on a virtual thread on Java 21 and later.
+     */
+    @Parameter(defaultValue = "false", property = "idris.run.virtualThread")
+    private boolean virtualThread;
+
+    /**
+     * Run the application in a child JVM instead of Maven's own JVM.
+     */
+    @Parameter(defaultValue = "false", property = "idris.fork")
+    private boolean fork;
+
+    /**
+     * JVM options of the child JVM when forking, for example "-Xmx2g".
+     */
+    @Parameter(property = "idris.jvmArgs")
+    private List<String> jvmArgs;
+
+    /**
+     * Idris programs to run in one batch instead of mainClass. Each runJob
+     * element takes its own mainClass, args and optionally appJar. The
+     * jobs share one class loader for the Idris runtime and dependencies,
+     * and each job only loads its app JAR on top of it.
+     */
+    @Parameter
+    private List<RunJob> runJobs;
+
+    /**
+     * Maximum number of runJobs to run at once. Jobs running at the same
+     * time share the static state of the Idris runtime, so the default
+     * runs them one after another.
+     */
+    @Parameter(defaultValue = "1", property = "idris.run.threads")
+    private int threads;
+
     /**
      * The Maven Session Object.
      */
@@ -71,34 +172,260 @@ public final class IdrisRunMojo extends AbstractMojo {
      * The entrypoint of the Run Mojo.
      */
     public void execute() throws MojoExecutionException {
+        BuildMetrics metrics = new BuildMetrics("run");
         try {
             JavaCommand cmd = new JavaCommand();
-            ClassLoader cl = getAppClassLoader(idrisHome);
+            List<File> classpath = getAppClasspath(idrisHome, metrics);
 
+            if (this.runJobs != null && !this.runJobs.isEmpty()) {
+                runBatch(classpath, metrics);
+                return;
+            }
             if (mainClassName == null || mainClassName.isEmpty()) {
                 throw new RuntimeException("mainClass property was not set.");
             }
 
-            cmd.run(mainClassName, cl, getLog());
+            if (this.args != null) {
+                cmd.addArgs(this.args.toArray(new String[0]));
+            }
+            cmd.redirectInput(this.inputFile);
+            cmd.redirectOutput(this.stdoutFile);
+            cmd.redirectError(this.stderrFile);
+            if (this.fork) {
+                runForked(cmd, classpath, metrics);
+            } else {
+                runInProcess(cmd, classpath, metrics);
+            }
+        } catch (MojoExecutionException e) {
+            throw e;
         } catch (Exception e) {
             throw new MojoExecutionException("Source error: " + e, e);
+        } finally {
+            getLog().info(metrics.summary());
+            File report = new File(this.project.getBuild().getDirectory(),
+                "idris-run-metrics.json");
+            try {
+                metrics.write(report);
+            } catch (IOException e) {
+                getLog().warn("Failed to write run metrics " + report, e);
+            }
         }
     }
 
-    private ClassLoader getAppClassLoader(final String idrHome)
+    private void runInProcess(
+        final JavaCommand cmd,
+        final List<File> classpath,
+        final BuildMetrics metrics) throws Exception {
+        ClassLoader cl;
+        try (BuildMetrics.Timer timer = metrics.start("classloader")) {
+            cl = ClassLoaderCache.get(classpath);
+        }
+        cmd.setTimeout(TimeUnit.SECONDS.toMillis(this.timeout));
+        cmd.setVirtualThread(this.virtualThread);
+        int exitCode;
+        boolean stopped = false;
+        try (BuildMetrics.Timer timer = metrics.start("run")) {
+            getLog().debug(ClassLoaderCache.stats());
+            exitCode = cmd.runIsolated(mainClassName, cl, getLog());
+            timer.addThreadUsage(cmd.getCpuNanos(), cmd.getAllocatedBytes());
+        } catch (TimeoutException e) {
+            stopped = true;
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            stopped = true;
+            throw e;
+        } finally {
+            if (stopped) {
+                // The program may still be running, so it is not reused
+                ClassLoaderCache.discard(cl);
+            } else {
+                ClassLoaderCache.release(cl);
+            }
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException(
+                mainClassName + " exited with code " + exitCode);
+        }
+    }
+
+    private void runForked(
+        final JavaCommand cmd,
+        final List<File> classpath,
+        final BuildMetrics metrics) throws Exception {
+        cmd.addJvmArgs(this.jvmArgs);
+        int exitCode;
+        try (BuildMetrics.Timer timer = metrics.start("run")) {
+            timer.outOfProcess();
+            exitCode = cmd.fork(mainClassName, classpath, getLog());
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException(
+                mainClassName + " exited with code " + exitCode);
+        }
+    }
+
+    /**
+     * Runs the runJobs, at most threads at once, and fails once all of
+     * them finished if any of them failed.
+     */
+    private void runBatch(
+        final List<File> classpath,
+        final BuildMetrics metrics) throws Exception {
+        // The app JAR comes first, the rest is shared by every job
+        List<File> shared =
+            new ArrayList<>(classpath.subList(1, classpath.size()));
+        ClassLoader parent = null;
+        if (!this.fork) {
+            try (BuildMetrics.Timer timer = metrics.start("classloader")) {
+                parent = ClassLoaderCache.get(shared);
+            }
+        }
+        AtomicBoolean abandoned = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(this.threads, this.runJobs.size())));
+        List<String> failures = new ArrayList<>();
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (RunJob job : this.runJobs) {
+                ClassLoader jobParent = parent;
+                futures.add(executor.submit(() ->
+                    runJob(job, shared, jobParent, abandoned, metrics)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                RunJob job = this.runJobs.get(i);
+                try {
+                    int exitCode = futures.get(i).get();
+                    if (exitCode != 0) {
+                        failures.add(job.getMainClass()
+                            + " exited with code " + exitCode);
+                    }
+                } catch (ExecutionException e) {
+                    failures.add(job.getMainClass() + ": " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            abandoned.set(true);
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while running jobs", e);
+        } finally {
+            executor.shutdownNow();
+            if (parent != null) {
+                if (abandoned.get()) {
+                    ClassLoaderCache.discard(parent);
+                } else {
+                    ClassLoaderCache.release(parent);
+                }
+            }
+        }
+
+        getLog().info("Jobs run: " + this.runJobs.size()
+            + ", Failed: " + failures.size());
+        if (!failures.isEmpty()) {
+            throw new MojoExecutionException(failures.size() + " of "
+                + this.runJobs.size() + " jobs failed: "
+                + String.join("; ", failures));
+        }
+    }
+
+    /**
+     * Runs one of the runJobs, in a child JVM when forking and otherwise
+     * in a class loader of its app JAR on top of the shared class loader.
+     * @return Exit code of the job.
+     */
+    private int runJob(
+        final RunJob job,
+        final List<File> shared,
+        final ClassLoader parent,
+        final AtomicBoolean abandoned,
+        final BuildMetrics metrics) throws Exception {
+        String mainClass = job.getMainClass();
+        if (mainClass == null || mainClass.isEmpty()) {
+            throw new MojoExecutionException("A runJob has no mainClass.");
+        }
+        File jar = job.getAppJar() == null ? this.appJar : job.getAppJar();
+        if (!jar.isAbsolute()) {
+            jar = new File(this.project.getBasedir(), jar.getPath());
+        }
+        JavaCommand cmd = new JavaCommand();
+        cmd.addArgs(job.getArgs().toArray(new String[0]));
+        long start = System.nanoTime();
+        try (BuildMetrics.Timer timer = metrics.start("run")) {
+            int exitCode;
+            if (parent == null) {
+                List<File> classpath = new ArrayList<>();
+                classpath.add(jar);
+                classpath.addAll(shared);
+                cmd.addJvmArgs(this.jvmArgs);
+                timer.outOfProcess();
+                exitCode = cmd.fork(mainClass, classpath, getLog());
+            } else {
+                exitCode = runLayered(cmd, mainClass, jar, parent, abandoned);
+                timer.addThreadUsage(
+                    cmd.getCpuNanos(), cmd.getAllocatedBytes());
+            }
+            getLog().info("Job " + job + " exited with code " + exitCode
+                + " in " + millisSince(start) + "ms");
+            return exitCode;
+        } catch (Exception e) {
+            getLog().error("Job " + job + " failed after "
+                + millisSince(start) + "ms: " + e);
+            throw e;
+        }
+    }
+
+    private int runLayered(
+        final JavaCommand cmd,
+        final String mainClass,
+        final File jar,
+        final ClassLoader parent,
+        final AtomicBoolean abandoned) throws Exception {
+        cmd.setTimeout(TimeUnit.SECONDS.toMillis(this.timeout));
+        cmd.setVirtualThread(this.virtualThread);
+        IndexedClassLoader cl = new IndexedClassLoader(
+            Collections.singletonList(jar), parent);
+        boolean stillRunning = false;
+        try {
+            return cmd.runIsolated(mainClass, cl, getLog());
+        } catch (TimeoutException | InterruptedException e) {
+            // The job may still be using the shared class loader
+            stillRunning = true;
+            abandoned.set(true);
+            throw e;
+        } finally {
+            if (!stillRunning) {
+                cl.close();
+            }
+        }
+    }
+
+    private static long millisSince(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private List<File> getAppClasspath(
+        final String idrHome,
+        final BuildMetrics metrics)
         throws DependencyResolutionRequiredException {
         if (idrHome == null || idrHome.isEmpty()) {
-            return ClassLoaderUtils.getRemoteAppClassLoader(
+            return ClassLoaderUtils.getRemoteAppClasspath(
                 this.repositorySystem,
                 this.session,
                 this.appJar,
                 this.project,
-                this.idrisVersion);
+                this.idrisVersion,
+                openLock(),
+                metrics);
         } else {
-            return ClassLoaderUtils.getLocalAppClassLoader(
+            return ClassLoaderUtils.getLocalAppClasspath(
                 this.project,
                 this.appJar,
-                idrHome);
+                idrHome,
+                metrics);
         }
     }
+
+    private ResolutionLock openLock() {
+        return ResolutionLock.open(this.lockFile, this.project, this.session,
+            this.idrisVersion, this.updateLock);
+    }
 }
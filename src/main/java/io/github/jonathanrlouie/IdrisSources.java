@@ -0,0 +1,186 @@
+package io.github.jonathanrlouie;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public final class IdrisSources {
+    private IdrisSources() { }
+
+    /**
+     * Matches an Idris import declaration, e.g. "import public Data.List".
+     */
+    private static final Pattern IMPORT_PATTERN = Pattern.compile(
+        "^import\\s+(?:public\\s+)?([A-Z][\\w']*(?:\\.[A-Z][\\w']*)*)");
+
+    /**
+     * Size of the buffer used when hashing files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Checksums of large files such as JARs keyed by path, size and
+     * modification time, so unchanged files are only hashed once per
+     * plugin realm.
+     */
+    private static final Map<String, String> CHECKSUMS =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Finds every Idris source and package file below the given roots.
+     * Roots that do not exist are ignored.
+     * @param roots Source root directories to search.
+     * @return Map of each found file to the source root it was found in,
+     * ordered by file path.
+     */
+    public static Map<File, File> findSources(final List<File> roots) {
+        Map<File, File> sources = new TreeMap<>();
+        for (File root : roots) {
+            if (!root.isDirectory()) {
+                continue;
+            }
+            try (Stream<Path> paths = Files.walk(root.toPath())) {
+                for (Path path : paths.filter(Files::isRegularFile)
+                    .filter(p -> isIdrisFile(p.toFile()))
+                    .collect(Collectors.toList())) {
+                    sources.putIfAbsent(
+                        path.toFile().getAbsoluteFile(),
+                        root.getAbsoluteFile());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(
+                    "Failed to list Idris sources in " + root, e);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Checks whether a file is an Idris source or package file.
+     * @param file File to check.
+     * @return Whether the file is an Idris source or package file.
+     */
+    public static boolean isIdrisFile(final File file) {
+        String name = file.getName();
+        return name.endsWith(".idr")
+            || name.endsWith(".lidr")
+            || name.endsWith(".ipkg");
+    }
+
+    /**
+     * Gets the module name of an Idris source file relative to its source
+     * root, e.g. "Data/Tree.idr" becomes "Data.Tree".
+     * @param root Source root that the file belongs to.
+     * @param source Idris source file.
+     * @return Module name of the source file.
+     */
+    public static String moduleName(final File root, final File source) {
+        String relative = root.toPath().relativize(source.toPath())
+            .toString();
+        int extension = relative.lastIndexOf('.');
+        if (extension > 0) {
+            relative = relative.substring(0, extension);
+        }
+        return relative.replace(File.separatorChar, '.');
+    }
+
+    /**
+     * Parses the modules imported by an Idris source file.
+     * @param source Idris source file.
+     * @return Names of the imported modules in declaration order.
+     */
+    public static List<String> imports(final File source) {
+        List<String> imports = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(
+            source.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Literate sources prefix code lines with "> "
+                String code = line.startsWith("> ")
+                    ? line.substring(2) : line;
+                Matcher matcher = IMPORT_PATTERN.matcher(code);
+                if (matcher.find()) {
+                    imports.add(matcher.group(1));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(
+                "Failed to read imports of " + source, e);
+        }
+        return imports;
+    }
+
+    /**
+     * Computes the SHA-256 checksum of a file's contents.
+     * @param file File to hash.
+     * @return Lowercase hex encoded SHA-256 checksum.
+     */
+    public static String sha256(final File file) {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to hash " + file, e);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-256 checksum of a file's contents, reusing the
+     * checksum computed before while the file's size and modification
+     * time stay the same. Meant for large files that rarely change, such
+     * as compiler JARs.
+     * @param file File to hash.
+     * @return Lowercase hex encoded SHA-256 checksum.
+     */
+    public static String sha256Memoized(final File file) {
+        String key = file.getAbsolutePath() + ':' + file.length()
+            + ':' + file.lastModified();
+        return CHECKSUMS.computeIfAbsent(key, k -> sha256(file));
+    }
+
+    /**
+     * Computes the SHA-256 checksum of a string.
+     * @param value String to hash.
+     * @return Lowercase hex encoded SHA-256 checksum.
+     */
+    public static String sha256(final String value) {
+        MessageDigest digest = newDigest();
+        return toHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
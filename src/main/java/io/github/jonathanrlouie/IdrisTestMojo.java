@@ -0,0 +1,441 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.repository.RepositorySystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Goal that compiles and runs Idris 2 tests. Every test source whose name
+ * ends with "Test", such as src/test/idris/AppTest.idr, is a program of
+ * its own, and may import the modules of the project's main sources. Tests
+ * are compiled and run in parallel, each with its own class loaders, and
+ * pass if they return or exit with code 0. A JUnit XML report is written
+ * for each test.
+ */
+@Mojo(
+    name = "test",
+    defaultPhase = LifecyclePhase.TEST,
+    requiresDependencyResolution = ResolutionScope.TEST,
+    threadSafe = true)
+public final class IdrisTestMojo extends AbstractMojo {
+    /**
+     * The maven project.
+     */
+    @Parameter(property = "project", required = true, readonly = true)
+    private MavenProject project;
+
+    /**
+     * Directory searched for Idris test sources.
+     */
+    @Parameter(defaultValue = "${project.build.testSourceDirectory}")
+    private File testSourceDirectory;
+
+    /**
+     * Class name of the main class of the compiled tests.
+     */
+    @Parameter(defaultValue = "main.Main", property = "idris.test.mainClass")
+    private String testMainClass;
+
+    /**
+     * Directory the JUnit XML reports are written to.
+     */
+    @Parameter(
+        defaultValue = "${project.build.directory}/surefire-reports",
+        property = "idris.test.reportsDirectory")
+    private File reportsDirectory;
+
+    /**
+     * Maximum number of tests to compile and run at once.
+     * Defaults to the number of available processors.
+     */
+    @Parameter(property = "idris.test.threads")
+    private int threads;
+
+    /**
+     * Seconds a test may run before it is interrupted and reported as an
+     * error, or 0 for no limit.
+     */
+    @Parameter(defaultValue = "0", property = "idris.test.timeout")
+    private long timeout;
+
+    /**
+     * Skip the tests.
+     */
+    @Parameter(defaultValue = "false", property = "skipTests")
+    private boolean skip;
+
+    /**
+     * The name of the main class of the Idris compiler JAR.
+     */
+    @Parameter(required = false, property = "maven.idris.className")
+    private String idrisClassName;
+
+    /**
+     * Idris 2 version to use.
+     */
+    @Parameter(defaultValue = "0.5.1", property = "idris.version")
+    private String idrisVersion;
+
+    /**
+     * Path to Idris installation to use instead of the artifact.
+     */
+    @Parameter(property = "idris.home")
+    private String idrisHome;
+
+    /**
+     * Lock file pinning the resolved idris-jvm artifacts. While the locked
+     * files are present and unchanged, they are used without resolving.
+     * It lives in the project's base directory rather than under target
+     * so that it survives mvn clean and can be committed with the pom.
+     */
+    @Parameter(
+        defaultValue = "${basedir}/idris-lock.properties",
+        property = "idris.lockFile")
+    private File lockFile;
+
+    /**
+     * Resolve the idris-jvm artifacts again and rewrite the lock file.
+     */
+    @Parameter(defaultValue = "false", property = "idris.lock.update")
+    private boolean updateLock;
+
+    /**
+     * The Maven Session Object.
+     */
+    @Parameter(property = "session", required = true, readonly = true)
+    private MavenSession session;
+
+    /**
+     * Used to look up Artifacts in the remote repository.
+     */
+    @Component
+    private RepositorySystem repositorySystem;
+
+    /**
+     * The entrypoint of the Test Mojo.
+     */
+    public void execute() throws MojoExecutionException {
+        if (this.skip) {
+            getLog().info("Tests are skipped.");
+            return;
+        }
+        Map<String, File> tests = findTests();
+        if (tests.isEmpty()) {
+            getLog().info("No Idris tests to run.");
+            return;
+        }
+
+        BuildMetrics metrics = new BuildMetrics("test");
+        File sourceDir;
+        try {
+            sourceDir = stageSources();
+        } catch (IOException e) {
+            throw new MojoExecutionException(
+                "Failed to copy the Idris sources of the tests", e);
+        }
+        List<File> compilerClasspath = getCompilerClasspath(metrics);
+        int poolSize = this.threads > 0
+            ? this.threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(poolSize, tests.size()));
+        List<TestReport> reports = new ArrayList<>();
+        try {
+            List<Future<TestReport>> futures = new ArrayList<>();
+            for (Map.Entry<String, File> test : tests.entrySet()) {
+                futures.add(executor.submit(() -> runTest(
+                    test.getKey(), test.getValue(), sourceDir,
+                    compilerClasspath, metrics)));
+            }
+            for (Future<TestReport> future : futures) {
+                reports.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while testing", e);
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException("Test error: " + e.getCause(),
+                e.getCause());
+        } finally {
+            executor.shutdownNow();
+            getLog().info(metrics.summary());
+            File report = new File(this.project.getBuild().getDirectory(),
+                "idris-test-metrics.json");
+            try {
+                metrics.write(report);
+            } catch (IOException e) {
+                getLog().warn("Failed to write test metrics " + report, e);
+            }
+        }
+
+        int failures = 0;
+        int errors = 0;
+        for (TestReport report : reports) {
+            if (report.isFailure()) {
+                failures++;
+            } else if (report.isError()) {
+                errors++;
+            }
+        }
+        getLog().info("Tests run: " + reports.size() + ", Failures: "
+            + failures + ", Errors: " + errors);
+        if (failures + errors > 0) {
+            throw new MojoExecutionException("There are test failures. See "
+                + this.reportsDirectory + " for the individual test results.");
+        }
+    }
+
+    /**
+     * Finds the test sources, keyed by module name.
+     */
+    private Map<String, File> findTests() {
+        Map<String, File> tests = new TreeMap<>();
+        if (this.testSourceDirectory == null
+            || !this.testSourceDirectory.isDirectory()) {
+            return tests;
+        }
+        List<File> roots = new ArrayList<>();
+        roots.add(this.testSourceDirectory);
+        for (File source : IdrisSources.findSources(roots).keySet()) {
+            String module = IdrisSources.moduleName(
+                this.testSourceDirectory, source);
+            if (module.endsWith("Test") && !source.getName().endsWith(".ipkg")) {
+                tests.put(module, source);
+            }
+        }
+        return tests;
+    }
+
+    /**
+     * Copies the main sources and then the test sources into one source
+     * directory, since the compiler takes a single source directory, which
+     * has to hold both a test and the main modules it imports.
+     * @return The source directory.
+     */
+    private File stageSources() throws IOException {
+        File staged = new File(this.project.getBuild().getDirectory(),
+            "idris-test-sources");
+        deleteRecursively(staged.toPath());
+        List<File> mainRoots = new ArrayList<>();
+        for (String root : this.project.getCompileSourceRoots()) {
+            mainRoots.add(new File(root));
+        }
+        copySources(mainRoots, staged);
+        copySources(Collections.singletonList(this.testSourceDirectory),
+            staged);
+        return staged;
+    }
+
+    private static void copySources(
+        final List<File> roots,
+        final File staged) throws IOException {
+        for (Map.Entry<File, File> source
+            : IdrisSources.findSources(roots).entrySet()) {
+            Path target = staged.toPath().resolve(source.getValue().toPath()
+                .relativize(source.getKey().toPath()));
+            Files.createDirectories(target.getParent());
+            Files.copy(source.getKey().toPath(), target,
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteRecursively(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    private TestReport runTest(
+        final String name,
+        final File source,
+        final File sourceDir,
+        final List<File> compilerClasspath,
+        final BuildMetrics metrics) throws IOException {
+        TestReport report = new TestReport(name);
+        String outputFile = name.replace('.', '_');
+        File testDir = new File(this.project.getBuild().getDirectory(),
+            "idris-tests/" + outputFile);
+        File stdout = new File(testDir, "stdout.txt");
+        File stderr = new File(testDir, "stderr.txt");
+        Files.deleteIfExists(stdout.toPath());
+        Files.deleteIfExists(stderr.toPath());
+        long start = System.nanoTime();
+        try {
+            File staged = sourceDir.toPath().resolve(this.testSourceDirectory
+                .getAbsoluteFile().toPath().relativize(
+                    source.getAbsoluteFile().toPath())).toFile();
+            compileTest(staged, sourceDir, outputFile, testDir,
+                compilerClasspath, metrics);
+            File testJar = new File(testDir,
+                outputFile + "_app/" + outputFile + ".jar");
+            List<File> classpath = getAppClasspath(testJar, metrics);
+            start = System.nanoTime();
+            JavaCommand cmd = new JavaCommand();
+            cmd.redirectOutput(stdout);
+            cmd.redirectError(stderr);
+            cmd.setTimeout(TimeUnit.SECONDS.toMillis(this.timeout));
+            ClassLoader cl = ClassLoaderCache.get(classpath);
+            boolean finished = false;
+            try (BuildMetrics.Timer timer = metrics.start("run")) {
+                report.setExitCode(
+                    cmd.runIsolated(this.testMainClass, cl, getLog()));
+                finished = true;
+                timer.addThreadUsage(
+                    cmd.getCpuNanos(), cmd.getAllocatedBytes());
+            } finally {
+                release(cl, finished);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.setError(e);
+        } catch (Exception e) {
+            report.setError(e);
+        }
+        report.setDurationMillis(
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        report.setOutput(read(stdout), read(stderr));
+        report.write(this.reportsDirectory);
+
+        String status = report.isFailure() ? "FAILED"
+            : report.isError() ? "ERROR" : "passed";
+        getLog().info("Test " + name + " " + status + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return report;
+    }
+
+    private void compileTest(
+        final File source,
+        final File sourceDir,
+        final String outputFile,
+        final File testDir,
+        final List<File> compilerClasspath,
+        final BuildMetrics metrics) throws Exception {
+        JavaCommand cmd = new JavaCommand();
+        cmd.addOption("-o", outputFile);
+        cmd.addOption("--output-dir", testDir.getAbsolutePath());
+        cmd.addOption("--build-dir",
+            new File(testDir, "build").getAbsolutePath());
+        cmd.addOption("--source-dir", sourceDir.getAbsolutePath());
+        cmd.addArgs(source.getAbsolutePath());
+        int exitCode;
+        ClassLoader cl = ClassLoaderCache.get(compilerClasspath);
+        boolean finished = false;
+        try (BuildMetrics.Timer timer = metrics.start("compile")) {
+            exitCode = cmd.runIsolated(
+                compilerMainClassName(this.idrisClassName), cl, getLog());
+            finished = true;
+            timer.addThreadUsage(cmd.getCpuNanos(), cmd.getAllocatedBytes());
+        } finally {
+            release(cl, finished);
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException(
+                "Idris compiler exited with code " + exitCode);
+        }
+    }
+
+    /**
+     * Gives a class loader back to the cache for reuse once its program
+     * finished, and otherwise discards it, since a program that timed out
+     * or failed to run may still be using it.
+     */
+    private static void release(final ClassLoader cl, final boolean finished) {
+        if (finished) {
+            ClassLoaderCache.release(cl);
+        } else {
+            ClassLoaderCache.discard(cl);
+        }
+    }
+
+    private static String read(final File file) throws IOException {
+        if (!file.isFile()) {
+            return "";
+        }
+        return new String(Files.readAllBytes(file.toPath()),
+            Charset.defaultCharset());
+    }
+
+    private List<File> getCompilerClasspath(final BuildMetrics metrics) {
+        if (this.idrisHome == null || this.idrisHome.isEmpty()) {
+            return ClassLoaderUtils.getRemoteCompilerClasspath(
+                this.repositorySystem,
+                this.session,
+                this.idrisVersion,
+                openLock(),
+                metrics);
+        } else {
+            return ClassLoaderUtils.getLocalCompilerClasspath(
+                this.idrisHome, metrics);
+        }
+    }
+
+    private List<File> getAppClasspath(
+        final File testJar,
+        final BuildMetrics metrics)
+        throws DependencyResolutionRequiredException {
+        if (this.idrisHome == null || this.idrisHome.isEmpty()) {
+            return ClassLoaderUtils.getRemoteAppClasspath(
+                this.repositorySystem,
+                this.session,
+                testJar,
+                this.project,
+                this.idrisVersion,
+                openLock(),
+                metrics);
+        } else {
+            return ClassLoaderUtils.getLocalAppClasspath(
+                this.project,
+                testJar,
+                this.idrisHome,
+                metrics);
+        }
+    }
+
+    private String compilerMainClassName(final String override) {
+        if (override == null || override.isEmpty()) {
+            return "idris2.Main";
+        } else {
+            return override;
+        }
+    }
+
+    private ResolutionLock openLock() {
+        return ResolutionLock.open(this.lockFile, this.project, this.session,
+            this.idrisVersion, this.updateLock);
+    }
+}
@@ -0,0 +1,442 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.repository.RepositorySystem;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Goal that watches the Idris sources and recompiles, and optionally
+ * reruns, the application whenever they change. The compiler's class
+ * loader stays warm between iterations. Stop it with Ctrl-C.
+ */
+@Mojo(
+    name = "watch",
+    requiresDependencyResolution = ResolutionScope.TEST)
+public final class IdrisWatchMojo extends AbstractMojo {
+    /**
+     * The maven project.
+     */
+    @Parameter(property = "project", required = true, readonly = true)
+    private MavenProject project;
+
+    /**
+     * Name of the output file. Equivalent to
+     * setting the -o flag of the Idris compiler.
+     */
+    @Parameter(defaultValue = "main", property = "outputFile")
+    private String outputFile;
+
+    /**
+     * Location of build output directory relative to the project's base
+     * directory. Equivalent to setting the --output-dir option of the
+     * Idris compiler.
+     */
+    @Parameter(defaultValue = ".", property = "outputDir")
+    private String outputDir;
+
+    /**
+     * The file with the main function. Equivalent to the primary argument
+     * given to the Idris compiler.
+     */
+    @Parameter(defaultValue = "Main.idr", property = "mainFile")
+    private File mainFile;
+
+    /**
+     * The name of the main class of the Idris compiler JAR.
+     */
+    @Parameter(required = false, property = "maven.idris.className")
+    private String idrisClassName;
+
+    /**
+     * Idris 2 version to use.
+     */
+    @Parameter(defaultValue = "0.5.1", property = "idris.version")
+    private String idrisVersion;
+
+    /**
+     * Path to Idris installation to use instead of the artifact.
+     */
+    @Parameter(property = "idris.home")
+    private String idrisHome;
+
+    /**
+     * Lock file pinning the resolved idris-jvm artifacts. While the locked
+     * files are present and unchanged, they are used without resolving.
+     * It lives in the project's base directory rather than under target
+     * so that it survives mvn clean and can be committed with the pom.
+     */
+    @Parameter(
+        defaultValue = "${basedir}/idris-lock.properties",
+        property = "idris.lockFile")
+    private File lockFile;
+
+    /**
+     * Resolve the idris-jvm artifacts again and rewrite the lock file.
+     */
+    @Parameter(defaultValue = "false", property = "idris.lock.update")
+    private boolean updateLock;
+
+    /**
+     * Milliseconds without further changes to wait before recompiling,
+     * so that saving several files at once triggers a single compile.
+     */
+    @Parameter(defaultValue = "300", property = "idris.watch.debounce")
+    private long debounce;
+
+    /**
+     * Run the application after every successful compile.
+     */
+    @Parameter(defaultValue = "false", property = "idris.watch.run")
+    private boolean run;
+
+    /**
+     * Class name of the Idris application to run.
+     */
+    @Parameter(property = "mainClass")
+    private String mainClassName;
+
+    /**
+     * Path to the compiled JAR file of the application. Relative paths are
+     * resolved against the project's base directory.
+     */
+    @Parameter(
+        defaultValue = "${project.basedir}/main_app/main.jar",
+        property = "appJar")
+    private File appJar;
+
+    /**
+     * Compile in a child JVM, which lets a newer change stop an in-flight
+     * compile immediately. An in-process compile cannot be stopped, so a
+     * newer change waits for it to finish.
+     */
+    @Parameter(defaultValue = "false", property = "idris.fork")
+    private boolean fork;
+
+    /**
+     * JVM options of the child JVM when forking, for example "-Xmx4g".
+     */
+    @Parameter(property = "idris.jvmArgs")
+    private List<String> jvmArgs;
+
+    /**
+     * The Maven Session Object.
+     */
+    @Parameter(property = "session", required = true, readonly = true)
+    private MavenSession session;
+
+    /** Used to look up Artifacts in the remote repository. */
+    @Component
+    private RepositorySystem repositorySystem;
+
+    /**
+     * Directories registered with the watch service.
+     */
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+
+    /**
+     * Number of the latest iteration, used to skip and cancel compiles
+     * that a newer change superseded.
+     */
+    private final AtomicInteger iteration = new AtomicInteger();
+
+    /**
+     * The entrypoint of the Watch Mojo.
+     */
+    public void execute() throws MojoExecutionException {
+        if (this.run && (mainClassName == null || mainClassName.isEmpty())) {
+            throw new MojoExecutionException("mainClass property was not set.");
+        }
+
+        BuildMetrics metrics = new BuildMetrics("watch");
+        List<File> compilerClasspath = getCompilerClasspath(metrics);
+        // One compile at a time, as compiles share the output and build
+        // directories
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "idris-watch-compile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (WatchService watchService =
+            FileSystems.getDefault().newWatchService()) {
+            for (File root : getSourceRoots()) {
+                if (root.isDirectory()) {
+                    register(watchService, root.toPath());
+                }
+            }
+            getLog().info("Watching " + this.watched.size()
+                + " directories for Idris source changes. Press Ctrl-C to stop.");
+
+            Future<?> inFlight = submit(executor, compilerClasspath,
+                System.nanoTime());
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                long changed = System.nanoTime();
+                boolean relevant = drain(watchService, key);
+                // Wait for the burst of changes to settle
+                WatchKey next;
+                while ((next = watchService.poll(
+                    this.debounce, TimeUnit.MILLISECONDS)) != null) {
+                    relevant |= drain(watchService, next);
+                }
+                if (!relevant) {
+                    continue;
+                }
+                if (!inFlight.isDone()) {
+                    getLog().info(this.fork
+                        ? "Sources changed, cancelling in-flight compile"
+                        : "Sources changed, recompiling once the in-flight"
+                            + " compile finishes");
+                }
+                inFlight = submit(executor, compilerClasspath, changed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to watch sources: " + e, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<?> submit(
+        final ExecutorService executor,
+        final List<File> compilerClasspath,
+        final long changed) {
+        int current = this.iteration.incrementAndGet();
+        return executor.submit(() -> {
+            if (this.iteration.get() != current) {
+                // Superseded while waiting for the previous compile
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                compile(compilerClasspath, current);
+            } catch (InterruptedException | CancellationException e) {
+                return;
+            } catch (Exception e) {
+                if (this.iteration.get() == current) {
+                    getLog().error("Compile failed: " + e.getMessage());
+                }
+                return;
+            }
+            if (this.iteration.get() != current) {
+                // A newer change arrived while this in-process compile ran
+                return;
+            }
+            long end = System.nanoTime();
+            getLog().info("Iteration " + current + ": compiled in "
+                + TimeUnit.NANOSECONDS.toMillis(end - start)
+                + "ms, " + TimeUnit.NANOSECONDS.toMillis(end - changed)
+                + "ms after the change");
+            if (this.run) {
+                runApp();
+            }
+        });
+    }
+
+    private void compile(final List<File> compilerClasspath, final int current)
+        throws Exception {
+        JavaCommand cmd = new JavaCommand();
+        cmd.addOption("-o", this.outputFile);
+        cmd.addOption("--output-dir", resolve(this.outputDir).getPath());
+        cmd.addOption("--build-dir", getBuildDir().getPath());
+        cmd.addArgs(resolve(this.mainFile.getPath()).getPath());
+        String compilerMainClass = compilerMainClassName(this.idrisClassName);
+        int exitCode;
+        if (this.fork) {
+            cmd.addJvmArgs(this.jvmArgs);
+            cmd.setCancellation(() -> this.iteration.get() != current);
+            exitCode = cmd.fork(
+                compilerMainClass, compilerClasspath, getLog());
+        } else {
+            ClassLoader cl = ClassLoaderCache.get(compilerClasspath);
+            try {
+                getLog().debug(ClassLoaderCache.stats());
+                exitCode = cmd.runIsolated(compilerMainClass, cl, getLog());
+            } finally {
+                ClassLoaderCache.release(cl);
+            }
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException(
+                "Idris compiler exited with code " + exitCode);
+        }
+    }
+
+    /**
+     * Gets the compile goal's build directory for the watched program, so
+     * the compiler's intermediate files stay under the build directory
+     * and either goal picks up where the other left off.
+     */
+    private File getBuildDir() {
+        CompilationUnit unit = new CompilationUnit(
+            resolve(this.mainFile.getPath()), this.outputFile,
+            resolve(this.outputDir).getPath());
+        return new File(this.project.getBuild().getDirectory(),
+            "idris-build/" + IdrisCompileMojo.unitKey(unit));
+    }
+
+    private void runApp() {
+        BuildMetrics metrics = new BuildMetrics("run");
+        ClassLoader cl = null;
+        long start = System.nanoTime();
+        try {
+            cl = ClassLoaderCache.get(getAppClasspath(metrics));
+            int exitCode = new JavaCommand()
+                .runIsolated(mainClassName, cl, getLog());
+            getLog().info("Ran " + mainClassName + " with exit code "
+                + exitCode + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                + "ms");
+        } catch (Exception e) {
+            getLog().error("Run failed: " + e, e);
+        } finally {
+            if (cl != null) {
+                ClassLoaderCache.release(cl);
+            }
+        }
+    }
+
+    /**
+     * Handles the events of a watch key.
+     * @return Whether any Idris file changed.
+     */
+    private boolean drain(final WatchService watchService, final WatchKey key)
+        throws IOException {
+        Path dir = this.watched.get(key);
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                && Files.isDirectory(path)) {
+                register(watchService, path);
+                relevant = true;
+            } else if (IdrisSources.isIdrisFile(path.toFile())) {
+                getLog().debug("Changed: " + path);
+                relevant = true;
+            }
+        }
+        if (!key.reset()) {
+            this.watched.remove(key);
+        }
+        return relevant;
+    }
+
+    private void register(final WatchService watchService, final Path root)
+        throws IOException {
+        List<Path> dirs;
+        try (Stream<Path> paths = Files.walk(root)) {
+            dirs = paths.filter(Files::isDirectory)
+                .collect(Collectors.toList());
+        }
+        for (Path dir : dirs) {
+            this.watched.put(dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE), dir);
+        }
+    }
+
+    private List<File> getSourceRoots() {
+        List<File> roots = new ArrayList<>();
+        for (String root : this.project.getCompileSourceRoots()) {
+            roots.add(new File(root));
+        }
+        File mainDir = resolve(this.mainFile.getPath()).getParentFile();
+        if (!roots.contains(mainDir)) {
+            roots.add(mainDir);
+        }
+        return roots;
+    }
+
+    private List<File> getCompilerClasspath(final BuildMetrics metrics) {
+        if (this.idrisHome == null || this.idrisHome.isEmpty()) {
+            return ClassLoaderUtils.getRemoteCompilerClasspath(
+                this.repositorySystem,
+                this.session,
+                this.idrisVersion,
+                openLock(),
+                metrics);
+        } else {
+            return ClassLoaderUtils.getLocalCompilerClasspath(
+                this.idrisHome, metrics);
+        }
+    }
+
+    private List<File> getAppClasspath(final BuildMetrics metrics)
+        throws DependencyResolutionRequiredException {
+        if (this.idrisHome == null || this.idrisHome.isEmpty()) {
+            return ClassLoaderUtils.getRemoteAppClasspath(
+                this.repositorySystem,
+                this.session,
+                resolve(this.appJar.getPath()),
+                this.project,
+                this.idrisVersion,
+                openLock(),
+                metrics);
+        } else {
+            return ClassLoaderUtils.getLocalAppClasspath(
+                this.project,
+                resolve(this.appJar.getPath()),
+                this.idrisHome,
+                metrics);
+        }
+    }
+
+    /**
+     * Resolves a path against the project's base directory rather than
+     * the working directory.
+     */
+    private File resolve(final String path) {
+        File file = new File(path);
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(this.project.getBasedir(), path);
+    }
+
+    private String compilerMainClassName(final String override) {
+        if (override == null || override.isEmpty()) {
+            return "idris2.Main";
+        } else {
+            return override;
+        }
+    }
+
+    private ResolutionLock openLock() {
+        return ResolutionLock.open(this.lockFile, this.project, this.session,
+            this.idrisVersion, this.updateLock);
+    }
+}
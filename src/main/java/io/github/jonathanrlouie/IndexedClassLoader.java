@@ -0,0 +1,425 @@
+package io.github.jonathanrlouie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipFile;
+import java.util.stream.Stream;
+
+/**
+ * Class loader for a classpath of JAR files and directories that finds
+ * classes and resources through an index of the directories each
+ * classpath element contains. A URLClassLoader asks every element in turn,
+ * which gets slow for applications with hundreds of dependency JARs;
+ * this class loader only asks the elements that contain the package.
+ * The index is built on the first lookup. Classpath elements that cannot
+ * be read are left out of the index, so they provide nothing, as with a
+ * URLClassLoader. Multi-release JAR files provide the classes for the
+ * running Java version, also as with a URLClassLoader.
+ */
+public final class IndexedClassLoader extends URLClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    /**
+     * First Java version supporting multi-release JAR files.
+     */
+    private static final int MULTI_RELEASE_VERSION = 9;
+
+    /**
+     * Directory holding the version specific entries of a multi-release
+     * JAR file.
+     */
+    private static final String VERSIONS_DIR = "META-INF/versions/";
+
+    /**
+     * ClassLoader.getDefinedPackage, or null before Java 9.
+     */
+    private static final Method GET_DEFINED_PACKAGE = getDefinedPackageMethod();
+
+    /**
+     * Opens jar: URLs of resources without the JVM-wide JAR file cache, so
+     * the JAR files are closed with the resource streams and a rebuilt
+     * JAR file is read afresh.
+     */
+    private static final URLStreamHandler UNCACHED_JAR_HANDLER =
+        new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(final URL url)
+                throws IOException {
+                URLConnection connection =
+                    new URL(url.toExternalForm()).openConnection();
+                connection.setUseCaches(false);
+                return connection;
+            }
+        };
+
+    /**
+     * Classpath elements in classpath order.
+     */
+    private final List<File> files;
+
+    /**
+     * URLs of the classpath elements in classpath order.
+     */
+    private final URL[] urls;
+
+    /**
+     * Opened JAR files of the classpath elements, or null for directories
+     * and elements that could not be opened.
+     */
+    private final JarFile[] jars;
+
+    /**
+     * Indices of the classpath elements containing each directory, such
+     * as "io/github/example", in classpath order. Null until the first
+     * lookup.
+     */
+    private volatile Map<String, int[]> index;
+
+    /**
+     * Manifests of the JAR files, or null where there is none.
+     */
+    private final Manifest[] manifests;
+
+    /**
+     * Creates a parentless class loader.
+     * @param files1 JAR files and class directories in classpath order.
+     */
+    public IndexedClassLoader(final List<File> files1) {
+        this(files1, null);
+    }
+
+    /**
+     * Creates a class loader that asks its parent first, as a
+     * URLClassLoader does.
+     * @param files1 JAR files and class directories in classpath order.
+     * @param parent Class loader asked before this one, or null for none.
+     */
+    public IndexedClassLoader(
+        final List<File> files1,
+        final ClassLoader parent) {
+        super(toUrls(files1), parent);
+        this.files = new ArrayList<>(files1);
+        this.urls = getURLs();
+        this.jars = new JarFile[files1.size()];
+        this.manifests = new Manifest[files1.size()];
+    }
+
+    @Override
+    protected Class<?> findClass(final String name)
+        throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        for (int i : elements(path)) {
+            byte[] bytes;
+            try {
+                bytes = read(i, path);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+            if (bytes != null) {
+                definePackageFor(name, i);
+                CodeSource source = new CodeSource(
+                    this.urls[i], (CodeSigner[]) null);
+                return defineClass(name, bytes, 0, bytes.length, source);
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @Override
+    public URL findResource(final String name) {
+        for (int i : elements(name)) {
+            URL url = resourceUrl(i, name);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(final String name) {
+        List<URL> urls = new ArrayList<>();
+        for (int i : elements(name)) {
+            URL url = resourceUrl(i, name);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (JarFile jar : this.jars) {
+            if (jar != null) {
+                jar.close();
+            }
+        }
+        super.close();
+    }
+
+    /**
+     * Gets the classpath elements that contain the directory of a path.
+     */
+    private int[] elements(final String path) {
+        Map<String, int[]> idx = this.index;
+        if (idx == null) {
+            idx = buildIndex();
+        }
+        int slash = path.lastIndexOf('/');
+        int[] elements = idx.get(slash < 0 ? "" : path.substring(0, slash));
+        return elements == null ? new int[0] : elements;
+    }
+
+    private synchronized Map<String, int[]> buildIndex() {
+        if (this.index != null) {
+            return this.index;
+        }
+        Map<String, List<Integer>> dirs = new HashMap<>();
+        for (int i = 0; i < this.files.size(); i++) {
+            File file = this.files.get(i);
+            for (String dir : listDirectories(i, file)) {
+                List<Integer> elements =
+                    dirs.computeIfAbsent(dir, k -> new ArrayList<>());
+                if (elements.isEmpty()
+                    || elements.get(elements.size() - 1) != i) {
+                    elements.add(i);
+                }
+            }
+        }
+        Map<String, int[]> idx = new HashMap<>(dirs.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : dirs.entrySet()) {
+            idx.put(e.getKey(),
+                e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        this.index = idx;
+        return idx;
+    }
+
+    /**
+     * Lists the directories holding files of a classpath element, opening
+     * it if it is a JAR file.
+     */
+    private List<String> listDirectories(final int i, final File file) {
+        List<String> dirs = new ArrayList<>();
+        if (file.isDirectory()) {
+            Path root = file.toPath();
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.filter(Files::isRegularFile).forEach(p -> dirs.add(
+                    parent(root.relativize(p).toString()
+                        .replace(File.separatorChar, '/'))));
+            } catch (IOException e) {
+                // Left out of the index
+            }
+            return dirs;
+        }
+        try {
+            JarFile jar = openJar(file);
+            this.jars[i] = jar;
+            Manifest manifest = jar.getManifest();
+            this.manifests[i] = manifest;
+            int version = isMultiRelease(manifest) ? JavaCommand.javaVersion() : 0;
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    dirs.add(parent(entry.getName()));
+                    String name = unversioned(entry.getName(), version);
+                    if (name != null) {
+                        dirs.add(parent(name));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Left out of the index
+        }
+        return dirs;
+    }
+
+    /**
+     * Opens a JAR file, reading multi-release JAR files for the running
+     * Java version as URLClassLoader does.
+     */
+    private static JarFile openJar(final File file) throws IOException {
+        if (JavaCommand.javaVersion() >= MULTI_RELEASE_VERSION) {
+            try {
+                // new JarFile(file, true, ZipFile.OPEN_READ, Runtime.version())
+                Class<?> versionClass = Class.forName("java.lang.Runtime$Version");
+                Object version = Runtime.class.getMethod("version").invoke(null);
+                return JarFile.class.getConstructor(File.class, boolean.class,
+                    int.class, versionClass)
+                    .newInstance(file, true, ZipFile.OPEN_READ, version);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to open " + file, e.getCause());
+            } catch (ReflectiveOperationException e) {
+                // Fall back to the base entries
+            }
+        }
+        return new JarFile(file);
+    }
+
+    private static boolean isMultiRelease(final Manifest manifest) {
+        return manifest != null && "true".equalsIgnoreCase(
+            manifest.getMainAttributes().getValue("Multi-Release"));
+    }
+
+    /**
+     * Gets the name a version specific entry of a multi-release JAR file
+     * is looked up by, or null if the entry is not one the running Java
+     * version uses.
+     */
+    private static String unversioned(final String name, final int version) {
+        if (version < MULTI_RELEASE_VERSION || !name.startsWith(VERSIONS_DIR)) {
+            return null;
+        }
+        int slash = name.indexOf('/', VERSIONS_DIR.length());
+        if (slash < 0) {
+            return null;
+        }
+        try {
+            int entryVersion = Integer.parseInt(
+                name.substring(VERSIONS_DIR.length(), slash));
+            return entryVersion <= version ? name.substring(slash + 1) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String parent(final String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+    /**
+     * Reads a file of a classpath element, or returns null if it has none.
+     */
+    private byte[] read(final int i, final String path) throws IOException {
+        JarFile jar = this.jars[i];
+        if (jar == null) {
+            File file = new File(this.files.get(i), path);
+            return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+        }
+        JarEntry entry = jar.getJarEntry(path);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream in = jar.getInputStream(entry)) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private URL resourceUrl(final int i, final String name) {
+        try {
+            JarFile jar = this.jars[i];
+            if (jar == null) {
+                File file = new File(this.files.get(i), name);
+                return file.isFile() ? file.toURI().toURL() : null;
+            }
+            if (jar.getEntry(name) == null) {
+                return null;
+            }
+            return new URL(null, "jar:" + this.urls[i] + "!/" + name,
+                UNCACHED_JAR_HANDLER);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Defines the package of a class the way URLClassLoader does, taking
+     * its specification and implementation details from the manifest.
+     */
+    private void definePackageFor(final String className, final int i) {
+        int dot = className.lastIndexOf('.');
+        if (dot < 0) {
+            return;
+        }
+        String pkg = className.substring(0, dot);
+        if (isDefined(pkg)) {
+            return;
+        }
+        Manifest manifest = this.manifests[i];
+        try {
+            if (manifest == null) {
+                definePackage(pkg, null, null, null, null, null, null, null);
+            } else {
+                definePackage(pkg, manifest, this.urls[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            // Defined by another thread in the meantime
+        }
+    }
+
+    /**
+     * Checks whether this class loader defined a package. Before Java 9,
+     * this cannot be checked, and defining it again fails instead.
+     */
+    private boolean isDefined(final String pkg) {
+        if (GET_DEFINED_PACKAGE == null) {
+            return false;
+        }
+        try {
+            return GET_DEFINED_PACKAGE.invoke(this, pkg) != null;
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static Method getDefinedPackageMethod() {
+        try {
+            return ClassLoader.class.getMethod("getDefinedPackage", String.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static URL[] toUrls(final List<File> files) {
+        URL[] urls = new URL[files.size()];
+        for (int i = 0; i < urls.length; i++) {
+            try {
+                urls[i] = files.get(i).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new RuntimeException(
+                    "Failed to convert into url " + files.get(i), e);
+            }
+        }
+        return urls;
+    }
+}
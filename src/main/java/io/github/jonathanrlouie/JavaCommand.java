@@ -2,6 +2,28 @@ package io.github.jonathanrlouie;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.InvocationTargetException;
@@ -13,6 +35,88 @@ public final class JavaCommand {
      */
     private List<String> args = new ArrayList<String>();
 
+    /**
+     * List of JVM options used when the command is forked.
+     */
+    private List<String> jvmArgs = new ArrayList<String>();
+
+    /**
+     * Environment variables set when the command is forked.
+     */
+    private Map<String, String> environment = new LinkedHashMap<String, String>();
+
+    /**
+     * Working directory of the forked command, or null for Maven's.
+     */
+    private File workingDirectory;
+
+    /**
+     * File that standard input is read from, or null for the standard
+     * input of this JVM.
+     */
+    private File inputFile;
+
+    /**
+     * Consumer of the lines of standard output, or null for the info log.
+     */
+    private Consumer<CharSequence> outputLines;
+
+    /**
+     * Consumer of the lines of standard error, or null for the warning log.
+     */
+    private Consumer<CharSequence> errorLines;
+
+    /**
+     * CPU time of the thread of the last isolated run, in nanoseconds.
+     */
+    private volatile long cpuNanos;
+
+    /**
+     * Bytes allocated by the thread of the last isolated run.
+     */
+    private volatile long allocatedBytes;
+
+    /**
+     * File that standard output is written to instead of the log.
+     */
+    private File outputFile;
+
+    /**
+     * File that standard error is written to instead of the log.
+     */
+    private File errorFile;
+
+    /**
+     * Milliseconds an isolated run may take, or 0 for no limit.
+     */
+    private long timeout;
+
+    /**
+     * Whether isolated runs use a virtual thread where available.
+     */
+    private boolean virtualThread;
+
+    /**
+     * Checked while an isolated run is going, which is cancelled once
+     * this returns true. Null if runs are never cancelled.
+     */
+    private BooleanSupplier cancellation;
+
+    /**
+     * How long a timed out program gets to react to being interrupted.
+     */
+    private static final long CANCEL_GRACE_MILLIS = 5000;
+
+    /**
+     * How often an isolated run checks whether it was cancelled.
+     */
+    private static final long CANCEL_POLL_MILLIS = 100;
+
+    /**
+     * Oldest Java version with virtual threads.
+     */
+    private static final int VIRTUAL_THREAD_VERSION = 21;
+
     /**
      * Executes a Java program with given CLI arguments.
      *
@@ -30,6 +134,15 @@ public final class JavaCommand {
         final Log logger)
         throws ClassNotFoundException, NoSuchMethodException,
         IllegalAccessException, InvocationTargetException {
+        mainMethod(mainClassName, classLoader, logger)
+            .invoke(null, new Object[] {getArgArray()});
+    }
+
+    private Method mainMethod(
+        final String mainClassName,
+        final ClassLoader classLoader,
+        final Log logger)
+        throws ClassNotFoundException, NoSuchMethodException {
         ClassLoader cl;
         if (classLoader == null) {
             cl = Thread.currentThread().getContextClassLoader();
@@ -52,12 +165,501 @@ public final class JavaCommand {
         || !Modifier.isStatic(mods) || !Modifier.isPublic(mods)) {
             throw new NoSuchMethodException("main");
         }
+        return mainMethod;
+    }
+
+    private String[] getArgArray() {
+        return this.args.toArray(new String[] {});
+    }
+
+    /**
+     * Executes a Java program with given CLI arguments on a thread of its
+     * own, with its standard output and error going to the info and
+     * warning log, or to the files given to {@link #redirectOutput} and
+     * {@link #redirectError}, without mixing with other output of this JVM.
+     * Its standard input is read from the file given to
+     * {@link #redirectInput}, if any.
+     * A System.exit call of the program ends only the program. The
+     * security manager and standard streams this takes are restored once
+     * the program ends. On JVMs that do not allow a security manager, the
+     * program runs in a child JVM on the classpath of its class loader
+     * instead.
+     *
+     * @param mainClassName Name of class containing Main method to execute.
+     * @param classLoader Classloader required to execute Java program.
+     * @param logger Logger for the program's output.
+     * @return Exit code the program passed to System.exit, or 0 if its
+     * main method returned.
+     * @throws ReflectiveOperationException if the main method cannot be
+     * invoked, or an InvocationTargetException if it throws.
+     * @throws IOException if an output file could not be written.
+     * @throws InterruptedException if interrupted while waiting for the
+     * program, in which case the program is interrupted too.
+     * @throws TimeoutException if the program did not finish in time,
+     * in which case it was interrupted.
+     * @throws CancellationException if the run was cancelled through
+     * {@link #setCancellation}, in which case the program was interrupted.
+     */
+    public int runIsolated(
+        final String mainClassName,
+        final ClassLoader classLoader,
+        final Log logger)
+        throws ReflectiveOperationException, IOException,
+        InterruptedException, TimeoutException {
+        this.cpuNanos = 0;
+        this.allocatedBytes = 0;
+        if (!ExitInterceptor.install()) {
+            logger.info("System.exit cannot be intercepted on this JVM,"
+                + " running " + mainClassName + " in a child JVM");
+            return launch(mainClassName, classpathOf(classLoader), logger,
+                this.timeout);
+        }
+        OutputRouter.install();
+        // The program's thread gives both back once it ends
+        boolean started = false;
+        int[] exitCode = {0};
+        Throwable[] failure = {null};
+        try (InputStream in = openInput(this.inputFile);
+            OutputStream out = open(this.outputFile, outputLines(logger));
+            OutputStream err = open(this.errorFile, errorLines(logger))) {
+            Method mainMethod = mainMethod(mainClassName, classLoader, logger);
+            String[] argArray = getArgArray();
+            Runnable program = () -> {
+                Thread.currentThread().setContextClassLoader(classLoader);
+                OutputRouter.route(out, err);
+                if (in != null) {
+                    OutputRouter.routeInput(in);
+                }
+                ExitInterceptor.intercept(true);
+                try {
+                    mainMethod.invoke(null, new Object[] {argArray});
+                } catch (InvocationTargetException e) {
+                    Integer status = ExitInterceptor.exitStatus(e);
+                    if (status == null) {
+                        failure[0] = e;
+                    } else {
+                        exitCode[0] = status;
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                } finally {
+                    this.cpuNanos = BuildMetrics.cpuNanos();
+                    this.allocatedBytes = BuildMetrics.allocatedBytes();
+                    System.out.flush();
+                    System.err.flush();
+                    ExitInterceptor.intercept(false);
+                    OutputRouter.unroute();
+                    OutputRouter.uninstall();
+                    ExitInterceptor.uninstall();
+                }
+            };
+            Thread thread = newThread(program, "idris-app-" + mainClassName);
+            thread.start();
+            started = true;
+            try {
+                await(thread, mainClassName);
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                throw e;
+            }
+        } finally {
+            if (!started) {
+                OutputRouter.uninstall();
+                ExitInterceptor.uninstall();
+            }
+        }
+
+        Throwable t = failure[0];
+        if (t instanceof ReflectiveOperationException) {
+            throw (ReflectiveOperationException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return exitCode[0];
+    }
+
+    /**
+     * Waits for an isolated program, interrupting it when it times out or
+     * is cancelled.
+     */
+    private void await(final Thread thread, final String mainClassName)
+        throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+        while (thread.isAlive()) {
+            if (this.cancellation != null && this.cancellation.getAsBoolean()) {
+                thread.interrupt();
+                thread.join(CANCEL_GRACE_MILLIS);
+                throw new CancellationException(mainClassName
+                    + " was cancelled"
+                    + (thread.isAlive()
+                        ? " and is still running after an interrupt" : ""));
+            }
+            long wait = CANCEL_POLL_MILLIS;
+            if (this.timeout > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(
+                    deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    thread.interrupt();
+                    thread.join(CANCEL_GRACE_MILLIS);
+                    throw new TimeoutException(mainClassName
+                        + " did not finish within " + this.timeout + "ms"
+                        + (thread.isAlive()
+                            ? " and is still running after an interrupt"
+                            : ""));
+                }
+                wait = Math.min(wait, remaining);
+            }
+            thread.join(wait);
+        }
+    }
+
+    /**
+     * Opens the input file as a stream reading straight from its channel
+     * into the program's buffers, without another buffer in between.
+     */
+    private static InputStream openInput(final File file) throws IOException {
+        if (file == null) {
+            return null;
+        }
+        return Channels.newInputStream(
+            FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    private static OutputStream open(
+        final File file,
+        final Consumer<CharSequence> lines) throws IOException {
+        if (file == null) {
+            return OutputRouter.lines(lines);
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        return new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+    }
+
+    private Thread newThread(final Runnable task, final String name) {
+        if (this.virtualThread && javaVersion() >= VIRTUAL_THREAD_VERSION) {
+            try {
+                // Thread.ofVirtual().name(name).unstarted(task)
+                Object builder = Thread.class.getMethod("ofVirtual")
+                    .invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class)
+                    .invoke(builder, name);
+                return (Thread) builderClass
+                    .getMethod("unstarted", Runnable.class)
+                    .invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                // Fall back to a platform thread
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Executes a Java program with given CLI arguments in a child JVM,
+     * streaming each line of its standard output to the info log and each
+     * line of its standard error to the warning log as it is written.
+     * Files given to {@link #redirectInput}, {@link #redirectOutput} and
+     * {@link #redirectError} are handed to the child JVM, so its input
+     * and output never pass through this JVM.
+     *
+     * @param mainClassName Name of class containing Main method to execute.
+     * @param classpath JAR files required to execute Java program.
+     * @param logger Logger for the program's output.
+     * @return Exit code of the child JVM.
+     * @throws IOException if the child JVM could not be started.
+     * @throws InterruptedException if interrupted while waiting for the
+     * child JVM, in which case the child JVM is destroyed.
+     * @throws CancellationException if the run was cancelled through
+     * {@link #setCancellation}, in which case the child JVM was destroyed
+     * and has exited.
+     */
+    public int fork(
+        final String mainClassName,
+        final List<File> classpath,
+        final Log logger) throws IOException, InterruptedException {
+        try {
+            return launch(mainClassName, classpath, logger, 0);
+        } catch (TimeoutException e) {
+            // Cannot happen without a time limit
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs a program in a child JVM, destroying it once it takes longer
+     * than a time limit.
+     */
+    private int launch(
+        final String mainClassName,
+        final List<File> classpath,
+        final Log logger,
+        final long timeoutMillis)
+        throws IOException, InterruptedException, TimeoutException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"),
+            "bin" + File.separator + "java").getPath());
+        command.addAll(this.jvmArgs);
+        command.add("-cp");
+        StringBuilder cp = new StringBuilder();
+        for (File jar : classpath) {
+            if (cp.length() > 0) {
+                cp.append(File.pathSeparatorChar);
+            }
+            cp.append(jar.getAbsolutePath());
+        }
+        command.add(cp.toString());
+        command.add(mainClassName);
+        command.addAll(this.args);
 
-        String[] argArray = this.args.toArray(new String[] {});
+        for (String arg : command) {
+            logger.debug("fork arg: " + arg);
+        }
 
-        // TODO - Redirect System.in System.err and System.out
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().putAll(this.environment);
+        if (this.workingDirectory != null) {
+            builder.directory(this.workingDirectory);
+        }
+        if (this.inputFile != null) {
+            builder.redirectInput(this.inputFile);
+        }
+        if (this.outputFile != null) {
+            builder.redirectOutput(createParent(this.outputFile));
+        }
+        if (this.errorFile != null) {
+            builder.redirectError(createParent(this.errorFile));
+        }
+        Process process = builder.start();
+        process.getOutputStream().close();
+        Thread stdout = pump(process.getInputStream(), outputLines(logger));
+        Thread stderr = pump(process.getErrorStream(), errorLines(logger));
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (!process.waitFor(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (timeoutMillis > 0 && System.nanoTime() - deadline > 0) {
+                    process.destroyForcibly().waitFor();
+                    throw new TimeoutException(mainClassName
+                        + " did not finish within " + timeoutMillis + "ms");
+                }
+                if (this.cancellation != null
+                    && this.cancellation.getAsBoolean()) {
+                    // Let go of the output before a new run writes it
+                    process.destroyForcibly().waitFor();
+                    throw new CancellationException(
+                        mainClassName + " was cancelled");
+                }
+            }
+            int exitCode = process.exitValue();
+            stdout.join();
+            stderr.join();
+            return exitCode;
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Lists the classpath a class loader and its parents were created
+     * with, in lookup order, to run the same program in a child JVM.
+     */
+    private static List<File> classpathOf(final ClassLoader classLoader) {
+        List<File> classpath = new ArrayList<>();
+        List<ClassLoader> chain = new ArrayList<>();
+        for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+            if (cl == ClassLoader.getSystemClassLoader()) {
+                break;
+            }
+            if (!(cl instanceof URLClassLoader)) {
+                throw new UnsupportedOperationException(
+                    "Cannot run the classpath of " + cl + " in a child JVM");
+            }
+            chain.add(0, cl);
+        }
+        // Parents are asked first
+        for (ClassLoader cl : chain) {
+            for (URL url : ((URLClassLoader) cl).getURLs()) {
+                try {
+                    classpath.add(new File(url.toURI()));
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    throw new UnsupportedOperationException(
+                        "Cannot run " + url + " in a child JVM", e);
+                }
+            }
+        }
+        return classpath;
+    }
 
-        mainMethod.invoke(null, new Object[] {argArray});
+    private Consumer<CharSequence> outputLines(final Log logger) {
+        return this.outputLines == null ? logger::info : this.outputLines;
+    }
+
+    private Consumer<CharSequence> errorLines(final Log logger) {
+        return this.errorLines == null ? logger::warn : this.errorLines;
+    }
+
+    private static File createParent(final File file) {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        return file;
+    }
+
+    /**
+     * Copies a stream line by line on a new thread, so that neither output
+     * stream of a child JVM blocks it and nothing is held in memory.
+     */
+    private static Thread pump(
+        final InputStream in,
+        final Consumer<CharSequence> lines) {
+        Thread thread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, Charset.defaultCharset()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.accept(line);
+                }
+            } catch (IOException e) {
+                lines.accept("Failed to read output: " + e);
+            }
+        }, "idris-fork-output");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Gets the feature version of the JVM running Maven, such as 8 or 17.
+     * Forked commands run on the same JVM.
+     * @return Java feature version.
+     */
+    public static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        return Integer.parseInt(version);
+    }
+
+    /**
+     * Adds JVM options used when the command is forked,
+     * for example "-Xmx2g" or "-XX:TieredStopAtLevel=1".
+     * @param jvmArgs1 List of JVM options.
+     */
+    public void addJvmArgs(final List<String> jvmArgs1) {
+        if (jvmArgs1 != null) {
+            this.jvmArgs.addAll(jvmArgs1);
+        }
+    }
+
+    /**
+     * Sets an environment variable of the child JVM when the command is
+     * forked, for example IDRIS2_PREFIX.
+     * @param name Name of the variable.
+     * @param value Value of the variable.
+     */
+    public void setEnvironment(final String name, final String value) {
+        this.environment.put(name, value);
+    }
+
+    /**
+     * Sets the working directory of the child JVM when the command is
+     * forked.
+     * @param dir Working directory, or null for Maven's.
+     */
+    public void setWorkingDirectory(final File dir) {
+        this.workingDirectory = dir;
+    }
+
+    /**
+     * Gets the CPU time of the thread of the last isolated run, which is
+     * measured once its program finished.
+     * @return CPU time in nanoseconds, or 0 if it was not measured.
+     */
+    public long getCpuNanos() {
+        return this.cpuNanos;
+    }
+
+    /**
+     * Gets the bytes allocated by the thread of the last isolated run,
+     * which are measured once its program finished.
+     * @return Allocated bytes, or 0 if they were not measured.
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * Passes each line of standard output and error of runs to consumers
+     * instead of the log, unless it is redirected to a file.
+     * @param out Consumer of standard output lines, or null for the log.
+     * @param err Consumer of standard error lines, or null for the log.
+     */
+    public void redirectLines(
+        final Consumer<CharSequence> out,
+        final Consumer<CharSequence> err) {
+        this.outputLines = out;
+        this.errorLines = err;
+    }
+
+    /**
+     * Reads the standard input of runs from a file.
+     * @param file File to read from, or null for the standard input of
+     * this JVM.
+     */
+    public void redirectInput(final File file) {
+        this.inputFile = file;
+    }
+
+    /**
+     * Writes the standard output of runs to a file instead of the log.
+     * @param file File to write to, or null for the log.
+     */
+    public void redirectOutput(final File file) {
+        this.outputFile = file;
+    }
+
+    /**
+     * Writes the standard error of runs to a file instead of the log.
+     * @param file File to write to, or null for the log.
+     */
+    public void redirectError(final File file) {
+        this.errorFile = file;
+    }
+
+    /**
+     * Limits how long isolated runs may take. A program that takes longer
+     * is interrupted.
+     * @param millis Milliseconds, or 0 for no limit.
+     */
+    public void setTimeout(final long millis) {
+        this.timeout = millis;
+    }
+
+    /**
+     * Cancels runs once a condition holds, such as the JVM running low on
+     * memory. A cancelled isolated program is interrupted, a cancelled
+     * child JVM is destroyed, and {@link #runIsolated} or {@link #fork}
+     * throws a CancellationException.
+     * @param cancellation1 Condition checked while a program runs, or
+     * null to never cancel.
+     */
+    public void setCancellation(final BooleanSupplier cancellation1) {
+        this.cancellation = cancellation1;
+    }
+
+    /**
+     * Runs isolated programs on a virtual thread on Java 21 and later.
+     * @param virtualThread1 Whether to use a virtual thread.
+     */
+    public void setVirtualThread(final boolean virtualThread1) {
+        this.virtualThread = virtualThread1;
     }
 
     /**
@@ -71,6 +673,14 @@ public final class JavaCommand {
         this.args.add(arg);
     }
 
+    /**
+     * Gets the CLI arguments added to the Java command so far.
+     * @return List of command arguments.
+     */
+    public List<String> getArgs() {
+        return this.args;
+    }
+
     /**
      * Adds a space separated list of arguments to the Java command.
      * @param args1 List of command arguments.
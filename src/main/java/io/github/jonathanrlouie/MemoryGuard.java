@@ -0,0 +1,245 @@
+package io.github.jonathanrlouie;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the memory of this JVM while a program such as the Idris
+ * compiler runs in it, recording the peak heap and metaspace use and the
+ * garbage collection done meanwhile. The guard trips when the heap still
+ * in use after garbage collection, or the metaspace, crosses its limit,
+ * so the program can be reported. It only reports: a thread that ignores
+ * interrupts cannot be stopped, so a program that has to be stopped runs
+ * in a child JVM instead. Memory is JVM-wide, so programs running at the
+ * same time share it.
+ */
+public final class MemoryGuard implements AutoCloseable {
+    /**
+     * Bytes per mebibyte, for the log summary.
+     */
+    private static final long MEBIBYTE = 1024 * 1024;
+
+    /**
+     * Milliseconds between samples.
+     */
+    private static final long SAMPLE_MILLIS = 50;
+
+    /**
+     * Thread taking the samples of every guard.
+     */
+    private static final ScheduledExecutorService SAMPLER =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idris-memory-guard");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * Most heap in use after garbage collection before the guard trips.
+     */
+    private final long heapLimit;
+
+    /**
+     * Most metaspace in use before the guard trips, or 0 for no limit.
+     */
+    private final long metaspaceLimit;
+
+    /**
+     * Garbage collection count when the guard started.
+     */
+    private final long startGcCount;
+
+    /**
+     * Garbage collection milliseconds when the guard started.
+     */
+    private final long startGcMillis;
+
+    /**
+     * The scheduled sampling.
+     */
+    private final ScheduledFuture<?> sampling;
+
+    /**
+     * Peak heap use seen, in bytes.
+     */
+    private volatile long peakHeap;
+
+    /**
+     * Peak metaspace use seen, in bytes.
+     */
+    private volatile long peakMetaspace;
+
+    /**
+     * Why the guard tripped, or null if it has not.
+     */
+    private volatile String tripReason;
+
+    /**
+     * Garbage collection count while the guard ran, set on close.
+     */
+    private long gcCount;
+
+    /**
+     * Garbage collection milliseconds while the guard ran, set on close.
+     */
+    private long gcMillis;
+
+    /**
+     * Starts sampling.
+     * @param heapLimit1 Bytes of heap that may still be in use after
+     * garbage collection before the guard trips.
+     * @param metaspaceLimit1 Bytes of metaspace that may be used before
+     * the guard trips, or 0 for no limit.
+     */
+    MemoryGuard(final long heapLimit1, final long metaspaceLimit1) {
+        this.heapLimit = heapLimit1;
+        this.metaspaceLimit = metaspaceLimit1;
+        long[] gc = gcTotals();
+        this.startGcCount = gc[0];
+        this.startGcMillis = gc[1];
+        sample();
+        this.sampling = SAMPLER.scheduleAtFixedRate(
+            this::sample, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts sampling.
+     * @param maxHeapPercent Percentage of the maximum heap that may still
+     * be in use after garbage collection before the guard trips.
+     * @param maxMetaspaceBytes Bytes of metaspace that may be used before
+     * the guard trips, or 0 for no limit.
+     * @return The running guard, to close when the program finished.
+     */
+    public static MemoryGuard start(
+        final int maxHeapPercent,
+        final long maxMetaspaceBytes) {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        return new MemoryGuard(
+            maxHeap / 100 * maxHeapPercent, maxMetaspaceBytes);
+    }
+
+    private void sample() {
+        long heap = 0;
+        long heapAfterGc = 0;
+        long metaspace = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getUsage();
+            if (usage == null) {
+                continue;
+            }
+            if (pool.getType() == MemoryType.HEAP) {
+                heap += usage.getUsed();
+                MemoryUsage afterGc = pool.getCollectionUsage();
+                if (afterGc != null) {
+                    heapAfterGc += afterGc.getUsed();
+                }
+            } else if (pool.getName().equals("Metaspace")) {
+                metaspace = usage.getUsed();
+            }
+        }
+        record(heap, heapAfterGc, metaspace);
+    }
+
+    /**
+     * Records a sample, tripping the guard if it crosses a limit.
+     * @param heap Bytes of heap in use.
+     * @param heapAfterGc Bytes of heap in use after the last garbage
+     * collection.
+     * @param metaspace Bytes of metaspace in use.
+     */
+    void record(final long heap, final long heapAfterGc, final long metaspace) {
+        this.peakHeap = Math.max(this.peakHeap, heap);
+        this.peakMetaspace = Math.max(this.peakMetaspace, metaspace);
+        if (this.tripReason != null) {
+            return;
+        }
+        if (heapAfterGc > this.heapLimit) {
+            this.tripReason = "heap in use after garbage collection reached "
+                + heapAfterGc / MEBIBYTE + "MiB, over the limit of "
+                + this.heapLimit / MEBIBYTE + "MiB";
+        } else if (this.metaspaceLimit > 0 && metaspace > this.metaspaceLimit) {
+            this.tripReason = "metaspace reached " + metaspace / MEBIBYTE
+                + "MiB, over the limit of "
+                + this.metaspaceLimit / MEBIBYTE + "MiB";
+        }
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        List<GarbageCollectorMXBean> gcs =
+            ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gc : gcs) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+
+    /**
+     * Checks whether a limit was crossed.
+     * @return Whether the guard tripped.
+     */
+    public boolean isTripped() {
+        return this.tripReason != null;
+    }
+
+    /**
+     * Gets which limit was crossed.
+     * @return Why the guard tripped, or null if it has not.
+     */
+    public String getTripReason() {
+        return this.tripReason;
+    }
+
+    /**
+     * Gets the peak heap use seen.
+     * @return Peak heap use in bytes.
+     */
+    public long getPeakHeap() {
+        return this.peakHeap;
+    }
+
+    /**
+     * Gets the peak metaspace use seen.
+     * @return Peak metaspace use in bytes.
+     */
+    public long getPeakMetaspace() {
+        return this.peakMetaspace;
+    }
+
+    /**
+     * Stops sampling, after taking a last sample and totalling the garbage
+     * collection done while the guard ran.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.sampling.isCancelled()) {
+            return;
+        }
+        this.sampling.cancel(false);
+        sample();
+        long[] gc = gcTotals();
+        this.gcCount = gc[0] - this.startGcCount;
+        this.gcMillis = gc[1] - this.startGcMillis;
+    }
+
+    /**
+     * Summarises the memory use for the Maven log, once closed.
+     * @return One line summary.
+     */
+    public synchronized String summary() {
+        return "peak heap " + this.peakHeap / MEBIBYTE + "MiB of "
+            + Runtime.getRuntime().maxMemory() / MEBIBYTE + "MiB, peak metaspace "
+            + this.peakMetaspace / MEBIBYTE + "MiB, gc " + this.gcMillis
+            + "ms in " + this.gcCount + " collections";
+    }
+}
@@ -0,0 +1,277 @@
+package io.github.jonathanrlouie;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Content addressed store of compiler output, shared by every build that
+ * points at the same directory, such as a directory in the user's home or
+ * a network mount. Each entry is the zipped output directory of one
+ * compilation, keyed by a checksum of everything the output depends on.
+ * Entries are written atomically, so concurrent builds never see partial
+ * entries, and the least recently used entries are evicted once the store
+ * outgrows its size limit.
+ */
+public final class OutputCache {
+    /**
+     * Extension of entry files.
+     */
+    private static final String EXTENSION = ".zip";
+
+    /**
+     * Number of key characters used to spread entries over directories.
+     */
+    private static final int PREFIX_LENGTH = 2;
+
+    /**
+     * Directory the entries are stored in.
+     */
+    private final File dir;
+
+    /**
+     * Size in bytes the store may grow to before entries are evicted.
+     */
+    private final long maxBytes;
+
+    /**
+     * Number of lookups that found an entry.
+     */
+    private final AtomicInteger hits = new AtomicInteger();
+
+    /**
+     * Number of lookups that found no entry.
+     */
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Number of entries stored.
+     */
+    private final AtomicInteger stores = new AtomicInteger();
+
+    /**
+     * Number of entries evicted.
+     */
+    private final AtomicInteger evictions = new AtomicInteger();
+
+    /**
+     * @param dir1 Directory the entries are stored in.
+     * @param maxBytes1 Size in bytes the store may grow to.
+     */
+    public OutputCache(final File dir1, final long maxBytes1) {
+        this.dir = dir1;
+        this.maxBytes = maxBytes1;
+    }
+
+    /**
+     * Replaces the contents of a directory with a stored entry, if there
+     * is one for the key.
+     * @param key Checksum of the inputs of the output.
+     * @param outputDir Directory to restore the output into.
+     * @return Whether an entry was found and restored.
+     * @throws IOException if the entry is corrupt or partly written, in
+     * which case the entry is deleted and the directory left empty, so
+     * that the output can be compiled instead.
+     */
+    public boolean restore(final String key, final File outputDir)
+        throws IOException {
+        File entry = entryFile(key);
+        if (!entry.isFile()) {
+            // Missing, or evicted by another build
+            this.misses.incrementAndGet();
+            return false;
+        }
+        try {
+            unzip(entry, outputDir);
+        } catch (IOException e) {
+            this.misses.incrementAndGet();
+            if (!entry.exists()) {
+                // Evicted by another build before it could be opened
+                return false;
+            }
+            entry.delete();
+            deleteRecursively(outputDir.toPath());
+            throw new IOException("Corrupt build cache entry " + entry, e);
+        }
+        // The modification time tracks use, for eviction
+        entry.setLastModified(System.currentTimeMillis());
+        this.hits.incrementAndGet();
+        return true;
+    }
+
+    private static void unzip(final File entry, final File outputDir)
+        throws IOException {
+        try (ZipFile zip = new ZipFile(entry)) {
+            deleteRecursively(outputDir.toPath());
+            Path root = outputDir.toPath().toAbsolutePath().normalize();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry e = entries.nextElement();
+                Path target = root.resolve(e.getName()).normalize();
+                if (!target.startsWith(root)) {
+                    throw new IOException("Entry " + e.getName() + " of "
+                        + entry + " is outside of the output directory");
+                }
+                if (e.isDirectory()) {
+                    Files.createDirectories(target);
+                    continue;
+                }
+                Files.createDirectories(target.getParent());
+                try (InputStream in = zip.getInputStream(e)) {
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the contents of a directory under a key, then evicts the
+     * least recently used entries if the store grew too large.
+     * @param key Checksum of the inputs of the output.
+     * @param outputDir Directory holding the output.
+     * @throws IOException if the entry could not be written.
+     */
+    public void store(final String key, final File outputDir)
+        throws IOException {
+        File entry = entryFile(key);
+        File parent = entry.getParentFile();
+        parent.mkdirs();
+        File tmp = File.createTempFile(key, ".tmp", parent);
+        try {
+            try (ZipOutputStream zip = new ZipOutputStream(
+                new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath())))) {
+                zipDirectory(outputDir.toPath(), zip);
+            }
+            Files.move(tmp.toPath(), entry.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        this.stores.incrementAndGet();
+        evict();
+    }
+
+    private static void zipDirectory(final Path root, final ZipOutputStream zip)
+        throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(root)) {
+            files = paths.filter(Files::isRegularFile).sorted()
+                .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String name = root.relativize(file).toString()
+                .replace(File.separatorChar, '/');
+            zip.putNextEntry(new ZipEntry(name));
+            Files.copy(file, zip);
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the store fits its
+     * size limit. Entries deleted by another build at the same time are
+     * skipped.
+     */
+    private void evict() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> paths = Files.walk(this.dir.toPath())) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                File file = path.toFile();
+                if (file.isFile() && file.getName().endsWith(EXTENSION)) {
+                    Entry entry = new Entry(file);
+                    entries.add(entry);
+                    total += entry.size;
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(e -> e.lastUsed));
+        for (Entry entry : entries) {
+            if (total <= this.maxBytes) {
+                break;
+            }
+            if (entry.file.delete()) {
+                this.evictions.incrementAndGet();
+            }
+            total -= entry.size;
+        }
+    }
+
+    private File entryFile(final String key) {
+        return new File(new File(this.dir, key.substring(0, PREFIX_LENGTH)),
+            key + EXTENSION);
+    }
+
+    private static void deleteRecursively(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * An entry file with its size and last use, read once so that entries
+     * touched during eviction keep a stable order.
+     */
+    private static final class Entry {
+        /**
+         * The entry file.
+         */
+        private final File file;
+
+        /**
+         * When the entry was stored or last restored, in milliseconds
+         * since the epoch.
+         */
+        private final long lastUsed;
+
+        /**
+         * Size of the entry file in bytes.
+         */
+        private final long size;
+
+        Entry(final File file1) {
+            this.file = file1;
+            this.lastUsed = file1.lastModified();
+            this.size = file1.length();
+        }
+    }
+
+    /**
+     * Summarizes the hits, misses, stores and evictions so far.
+     * @return Human readable summary.
+     */
+    public String stats() {
+        int lookups = this.hits.get() + this.misses.get();
+        return String.format(Locale.ROOT,
+            "Build cache %s: %d hits, %d misses (%.0f%% hit rate),"
+            + " %d stored, %d evicted",
+            this.dir, this.hits.get(), this.misses.get(),
+            lookups == 0 ? 0.0 : 100.0 * this.hits.get() / lookups,
+            this.stores.get(), this.evictions.get());
+    }
+}
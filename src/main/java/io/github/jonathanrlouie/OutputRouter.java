@@ -0,0 +1,318 @@
+package io.github.jonathanrlouie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.function.Consumer;
+
+/**
+ * Routes System.out and System.err per thread, so programs hosted in this
+ * JVM write to their own destinations instead of interleaving with each
+ * other and with Maven's output. System.in can be routed the same way,
+ * so each program reads its own input. Threads started by a routed thread
+ * inherit its routes. Threads without a route use the original streams.
+ * The standard streams are only replaced while a hosted program runs.
+ */
+public final class OutputRouter {
+    private OutputRouter() { }
+
+    /**
+     * Destinations of the current thread's standard output and error.
+     */
+    private static final InheritableThreadLocal<OutputStream[]> ROUTES =
+        new InheritableThreadLocal<>();
+
+    /**
+     * Source of the current thread's standard input.
+     */
+    private static final InheritableThreadLocal<InputStream> INPUTS =
+        new InheritableThreadLocal<>();
+
+    /**
+     * Set while a destination handles a write, so that a destination which
+     * itself prints, such as a Maven logger, reaches the original streams.
+     */
+    private static final ThreadLocal<Boolean> DELIVERING =
+        ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * Number of runs relying on the routing streams, which only replace
+     * the standard streams while this is positive.
+     */
+    private static int users;
+
+    /**
+     * Standard input before the routing streams replaced it.
+     */
+    private static InputStream originalIn;
+
+    /**
+     * Standard output before the routing streams replaced it.
+     */
+    private static PrintStream originalOut;
+
+    /**
+     * Standard error before the routing streams replaced it.
+     */
+    private static PrintStream originalErr;
+
+    /**
+     * Replaces System.in, System.out and System.err with routing streams
+     * for a run, unless another run did so already. Every call must be
+     * paired with {@link #uninstall()} once the run is over.
+     */
+    public static synchronized void install() {
+        if (users++ > 0) {
+            return;
+        }
+        originalIn = System.in;
+        originalOut = System.out;
+        originalErr = System.err;
+        System.setIn(new RoutingInputStream(originalIn));
+        System.setOut(new PrintStream(
+            new RoutingOutputStream(originalOut, 0), true));
+        System.setErr(new PrintStream(
+            new RoutingOutputStream(originalErr, 1), true));
+    }
+
+    /**
+     * Ends a run's use of the routing streams, putting the original
+     * standard streams back once no run uses them.
+     */
+    public static synchronized void uninstall() {
+        if (users == 0) {
+            return;
+        }
+        users--;
+        if (users == 0) {
+            System.out.flush();
+            System.err.flush();
+            System.setIn(originalIn);
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+            originalIn = null;
+            originalOut = null;
+            originalErr = null;
+        }
+    }
+
+    /**
+     * Routes the standard output and error of the current thread, and of
+     * threads it starts from now on.
+     * @param out Destination of standard output.
+     * @param err Destination of standard error.
+     */
+    public static void route(final OutputStream out, final OutputStream err) {
+        ROUTES.set(new OutputStream[] {out, err});
+    }
+
+    /**
+     * Routes the standard input of the current thread, and of threads it
+     * starts from now on.
+     * @param in Source of standard input.
+     */
+    public static void routeInput(final InputStream in) {
+        INPUTS.set(in);
+    }
+
+    /**
+     * Sends the current thread's input and output to the original streams
+     * again.
+     */
+    public static void unroute() {
+        ROUTES.remove();
+        INPUTS.remove();
+    }
+
+    /**
+     * Creates a destination that passes each complete line written to it
+     * to a consumer, such as a Maven logger. Lines are only held in memory
+     * until they end.
+     * @param lines Consumer of the written lines.
+     * @return The destination.
+     */
+    public static OutputStream lines(final Consumer<CharSequence> lines) {
+        return new LineOutputStream(lines);
+    }
+
+    /**
+     * Writes to the current thread's route or the original stream.
+     */
+    private static final class RoutingOutputStream extends OutputStream {
+        /**
+         * Stream that threads without a route write to.
+         */
+        private final OutputStream original;
+
+        /**
+         * Index of the stream in a route.
+         */
+        private final int index;
+
+        RoutingOutputStream(final OutputStream original1, final int index1) {
+            this.original = original1;
+            this.index = index1;
+        }
+
+        private OutputStream target() {
+            OutputStream[] route = ROUTES.get();
+            if (route == null || DELIVERING.get()) {
+                return this.original;
+            }
+            return route[this.index];
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+            OutputStream target = target();
+            if (target == this.original) {
+                this.original.write(b, off, len);
+                return;
+            }
+            DELIVERING.set(Boolean.TRUE);
+            try {
+                target.write(b, off, len);
+            } finally {
+                DELIVERING.set(Boolean.FALSE);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            OutputStream target = target();
+            if (target == this.original) {
+                this.original.flush();
+                return;
+            }
+            DELIVERING.set(Boolean.TRUE);
+            try {
+                target.flush();
+            } finally {
+                DELIVERING.set(Boolean.FALSE);
+            }
+        }
+    }
+
+    /**
+     * Reads from the current thread's route or the original stream.
+     */
+    private static final class RoutingInputStream extends InputStream {
+        /**
+         * Stream that threads without a route read from.
+         */
+        private final InputStream original;
+
+        RoutingInputStream(final InputStream original1) {
+            this.original = original1;
+        }
+
+        private InputStream source() {
+            InputStream in = INPUTS.get();
+            return in == null ? this.original : in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return source().read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+            throws IOException {
+            return source().read(b, off, len);
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            return source().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return source().available();
+        }
+
+        /**
+         * Closes a routed source only; the original stream stays open for
+         * Maven.
+         */
+        @Override
+        public void close() throws IOException {
+            InputStream in = INPUTS.get();
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Buffers bytes until a line ends, then passes the line on.
+     */
+    private static final class LineOutputStream extends OutputStream {
+        /**
+         * Consumer of complete lines.
+         */
+        private final Consumer<CharSequence> lines;
+
+        /**
+         * Bytes of the current, unfinished line.
+         */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        LineOutputStream(final Consumer<CharSequence> lines1) {
+            this.lines = lines1;
+        }
+
+        @Override
+        public synchronized void write(final int b) {
+            if (b == '\n') {
+                emit();
+            } else {
+                this.line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(
+            final byte[] b, final int off, final int len) {
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    this.line.write(b, start, i - start);
+                    emit();
+                    start = i + 1;
+                }
+            }
+            this.line.write(b, start, off + len - start);
+        }
+
+        /**
+         * Passes on an unfinished last line.
+         */
+        @Override
+        public synchronized void close() {
+            if (this.line.size() > 0) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            String text = new String(this.line.toByteArray(),
+                Charset.defaultCharset());
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            this.line.reset();
+            this.lines.accept(text);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Dependency graph of the Idris packages of a build. A package depends on
+ * another package of the build if it lists it in its depends field, or if
+ * one of its modules imports a module of the other package. Packages that
+ * are not part of the build, such as base and contrib, are left out.
+ */
+public final class PackageGraph {
+    /**
+     * Packages of the build keyed by name, in the order they were given.
+     */
+    private final Map<String, IdrisPackage> packages = new LinkedHashMap<>();
+
+    /**
+     * Names of the packages each package depends on, keyed by name.
+     */
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+
+    /**
+     * Builds the graph of the given packages.
+     * @param packages1 Packages of the build.
+     * @throws IllegalArgumentException if two packages have the same name.
+     */
+    public PackageGraph(final Collection<IdrisPackage> packages1) {
+        Map<String, String> owners = new HashMap<>();
+        for (IdrisPackage pkg : packages1) {
+            if (this.packages.put(pkg.getName(), pkg) != null) {
+                throw new IllegalArgumentException(
+                    "More than one package is named " + pkg.getName());
+            }
+            for (String module : pkg.getModules()) {
+                owners.putIfAbsent(module, pkg.getName());
+            }
+        }
+
+        for (IdrisPackage pkg : this.packages.values()) {
+            Set<String> deps = new LinkedHashSet<>();
+            for (String dep : pkg.getDepends()) {
+                if (this.packages.containsKey(dep)) {
+                    deps.add(dep);
+                }
+            }
+            for (String module : pkg.getModules()) {
+                File source = pkg.findSource(module);
+                if (source == null) {
+                    continue;
+                }
+                for (String imported : IdrisSources.imports(source)) {
+                    String owner = owners.get(imported);
+                    if (owner != null && !owner.equals(pkg.getName())) {
+                        deps.add(owner);
+                    }
+                }
+            }
+            this.dependencies.put(pkg.getName(), deps);
+        }
+    }
+
+    /**
+     * Gets the packages of the build that a package depends on.
+     * @param name Name of the package.
+     * @return Names of the packages it depends on.
+     */
+    public Set<String> getDependencies(final String name) {
+        return this.dependencies.get(name);
+    }
+
+    /**
+     * Orders the packages into waves: every package only depends on
+     * packages of earlier waves, so the packages of one wave can be built
+     * at the same time once the earlier waves are built. Packages within
+     * a wave are ordered by name.
+     * @return The waves in build order.
+     * @throws IllegalStateException if packages depend on each other in
+     * a cycle.
+     */
+    public List<List<IdrisPackage>> waves() {
+        List<List<IdrisPackage>> waves = new ArrayList<>();
+        Set<String> built = new LinkedHashSet<>();
+        while (built.size() < this.packages.size()) {
+            Map<String, IdrisPackage> wave = new TreeMap<>();
+            for (IdrisPackage pkg : this.packages.values()) {
+                if (!built.contains(pkg.getName())
+                    && built.containsAll(this.dependencies.get(pkg.getName()))) {
+                    wave.put(pkg.getName(), pkg);
+                }
+            }
+            if (wave.isEmpty()) {
+                Set<String> cycle = new LinkedHashSet<>(this.packages.keySet());
+                cycle.removeAll(built);
+                throw new IllegalStateException(
+                    "Idris packages depend on each other in a cycle: "
+                    + String.join(", ", cycle));
+            }
+            built.addAll(wave.keySet());
+            waves.add(new ArrayList<>(wave.values()));
+        }
+        return waves;
+    }
+}
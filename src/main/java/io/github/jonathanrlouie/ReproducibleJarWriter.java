@@ -0,0 +1,435 @@
+package io.github.jonathanrlouie;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes JAR files that are byte for byte the same for the same contents:
+ * entries are sorted by name, carry one fixed timestamp and no other
+ * varying metadata. Entries are read straight from their sources and
+ * compressed in parallel, then written in order, so large outputs are
+ * packaged at the speed of all cores without staging copies on disk.
+ * JARs are limited to 65535 entries and 4 GiB, since Zip64 is not
+ * written.
+ */
+public final class ReproducibleJarWriter {
+    /**
+     * Opens the contents of an entry.
+     */
+    public interface Source {
+        /**
+         * Opens the contents of an entry.
+         * @return Stream of the entry's contents, closed by the caller.
+         * @throws IOException if the contents could not be read.
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Extensions of files that are already compressed, which are stored
+     * rather than compressed again.
+     */
+    private static final String[] COMPRESSED_EXTENSIONS = {
+        ".jar", ".zip", ".gz", ".png", ".jpg", ".jpeg", ".gif", ".woff2"
+    };
+
+    /**
+     * Number of entries compressed ahead of the writer per thread, which
+     * bounds how many compressed entries are held in memory.
+     */
+    private static final int ENTRIES_PER_THREAD = 16;
+
+    /**
+     * Largest size and offset the plain zip format can hold.
+     */
+    private static final long ZIP_LIMIT = 0xFFFFFFFFL;
+
+    /**
+     * Largest entry count the plain zip format can hold.
+     */
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    /**
+     * Version of the zip format needed to extract the entries.
+     */
+    private static final int VERSION = 20;
+
+    /**
+     * Flag marking names as UTF-8.
+     */
+    private static final int UTF8_FLAG = 0x0800;
+
+    /**
+     * Compression method of stored entries.
+     */
+    private static final int STORED = 0;
+
+    /**
+     * Compression method of deflated entries.
+     */
+    private static final int DEFLATED = 8;
+
+    /**
+     * Entry sources keyed by entry name.
+     */
+    private final Map<String, Source> entries = new TreeMap<>();
+
+    /**
+     * Attributes of the manifest, which is always the first entry.
+     */
+    private final Manifest manifest = new Manifest();
+
+    /**
+     * Deflate level of compressed entries.
+     */
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Timestamp of all entries in MS-DOS format.
+     */
+    private long dosTime = dosTime(ZonedDateTime.of(
+        1980, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+
+    /**
+     * Number of threads compressing entries.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Creates a writer of JARs with a version 1.0 manifest.
+     */
+    public ReproducibleJarWriter() {
+        this.manifest.getMainAttributes()
+            .put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    }
+
+    /**
+     * Adds an entry, unless an entry with the same name was added before.
+     * @param name Entry name, using '/' as the separator.
+     * @param source Contents of the entry.
+     * @return Whether the entry was added.
+     */
+    public boolean add(final String name, final Source source) {
+        if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+            return false;
+        }
+        return this.entries.putIfAbsent(name, source) == null;
+    }
+
+    /**
+     * Gets the main attributes of the manifest, to add Main-Class or
+     * other attributes to.
+     * @return The main attributes.
+     */
+    public Attributes getManifestAttributes() {
+        return this.manifest.getMainAttributes();
+    }
+
+    /**
+     * Sets the deflate level of compressed entries.
+     * @param level1 Level from 0, storing all entries, to 9.
+     */
+    public void setLevel(final int level1) {
+        this.level = level1;
+    }
+
+    /**
+     * Sets the timestamp of all entries. MS-DOS timestamps start in 1980
+     * and have a resolution of two seconds.
+     * @param time The timestamp.
+     */
+    public void setTimestamp(final ZonedDateTime time) {
+        this.dosTime = dosTime(time.withZoneSameInstant(ZoneOffset.UTC));
+    }
+
+    /**
+     * Sets the number of threads compressing entries.
+     * @param threads1 Number of threads.
+     */
+    public void setThreads(final int threads1) {
+        this.threads = Math.max(1, threads1);
+    }
+
+    /**
+     * Gets the number of entries added, not counting the manifest.
+     * @return Number of entries.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Writes the JAR, replacing the file atomically.
+     * @param jar JAR file to write.
+     * @throws IOException if an entry could not be read or the JAR could
+     * not be written.
+     */
+    public void write(final File jar) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<Source> sources = new ArrayList<>();
+        names.add("META-INF/");
+        sources.add(null);
+        names.add(JarFile.MANIFEST_NAME);
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        this.manifest.write(manifestBytes);
+        byte[] manifestData = manifestBytes.toByteArray();
+        sources.add(() -> new ByteArrayInputStream(manifestData));
+        for (Map.Entry<String, Source> e : this.entries.entrySet()) {
+            if (!e.getKey().equals("META-INF/")) {
+                names.add(e.getKey());
+                sources.add(e.getValue());
+            }
+        }
+        if (names.size() > MAX_ENTRIES) {
+            throw new IOException("Too many entries for a JAR without Zip64: "
+                + names.size());
+        }
+
+        File dir = jar.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(jar.getName(), ".tmp", dir);
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        try {
+            try (CountingOutputStream out = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                writeEntries(out, names, sources, executor);
+            }
+            Files.move(tmp.toPath(), jar.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            executor.shutdownNow();
+            tmp.delete();
+        }
+    }
+
+    private void writeEntries(
+        final CountingOutputStream out,
+        final List<String> names,
+        final List<Source> sources,
+        final ExecutorService executor) throws IOException {
+        int window = this.threads * ENTRIES_PER_THREAD;
+        List<Future<Compressed>> pending = new ArrayList<>();
+        List<Compressed> written = new ArrayList<>();
+        int next = 0;
+        try {
+            while (next < names.size() || !pending.isEmpty()) {
+                // Keep the window of compressing entries full
+                while (next < names.size() && pending.size() < window) {
+                    String name = names.get(next);
+                    Source source = sources.get(next);
+                    pending.add(executor.submit(() -> compress(name, source)));
+                    next++;
+                }
+                Compressed entry = pending.remove(0).get();
+                entry.offset = out.count;
+                writeLocalHeader(out, entry);
+                out.write(entry.data);
+                entry.data = null;
+                written.add(entry);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing JAR", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress JAR entry", e.getCause());
+        }
+
+        long centralStart = out.count;
+        for (Compressed entry : written) {
+            writeCentralHeader(out, entry);
+        }
+        long centralSize = out.count - centralStart;
+        if (centralStart + centralSize > ZIP_LIMIT) {
+            throw new IOException("JAR is too large without Zip64");
+        }
+        writeInt(out, 0x06054b50);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, written.size());
+        writeShort(out, written.size());
+        writeInt(out, centralSize);
+        writeInt(out, centralStart);
+        writeShort(out, 0);
+    }
+
+    private Compressed compress(final String name, final Source source)
+        throws IOException {
+        Compressed entry = new Compressed();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        if (source == null) {
+            entry.data = new byte[0];
+            return entry;
+        }
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        boolean store = this.level == 0 || isCompressed(name);
+        Deflater deflater = new Deflater(this.level, true);
+        try (InputStream in = source.open()) {
+            OutputStream target = store
+                ? data : new DeflaterOutputStream(data, deflater);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+                entry.size += n;
+                target.write(buffer, 0, n);
+            }
+            target.close();
+        } finally {
+            deflater.end();
+        }
+        entry.method = store ? STORED : DEFLATED;
+        entry.crc = crc.getValue();
+        entry.data = data.toByteArray();
+        entry.compressedSize = entry.data.length;
+        if (entry.size > ZIP_LIMIT) {
+            throw new IOException("Entry is too large without Zip64: " + name);
+        }
+        return entry;
+    }
+
+    private static boolean isCompressed(final String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        for (String extension : COMPRESSED_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeLocalHeader(
+        final OutputStream out,
+        final Compressed entry) throws IOException {
+        writeInt(out, 0x04034b50);
+        writeShort(out, VERSION);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.method);
+        writeInt(out, this.dosTime);
+        writeInt(out, entry.crc);
+        writeInt(out, entry.compressedSize);
+        writeInt(out, entry.size);
+        writeShort(out, entry.name.length);
+        writeShort(out, 0);
+        out.write(entry.name);
+    }
+
+    private void writeCentralHeader(
+        final OutputStream out,
+        final Compressed entry) throws IOException {
+        writeInt(out, 0x02014b50);
+        writeShort(out, VERSION);
+        writeShort(out, VERSION);
+        writeShort(out, UTF8_FLAG);
+        writeShort(out, entry.method);
+        writeInt(out, this.dosTime);
+        writeInt(out, entry.crc);
+        writeInt(out, entry.compressedSize);
+        writeInt(out, entry.size);
+        writeShort(out, entry.name.length);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeInt(out, 0);
+        writeInt(out, entry.offset);
+        out.write(entry.name);
+    }
+
+    private static void writeShort(final OutputStream out, final int v)
+        throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(final OutputStream out, final long v)
+        throws IOException {
+        writeShort(out, (int) (v & 0xFFFF));
+        writeShort(out, (int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private static long dosTime(final ZonedDateTime time) {
+        if (time.getYear() < 1980) {
+            return dosTime(ZonedDateTime.of(
+                1980, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+        }
+        return ((long) (time.getYear() - 1980) << 25)
+            | ((long) time.getMonthValue() << 21)
+            | ((long) time.getDayOfMonth() << 16)
+            | ((long) time.getHour() << 11)
+            | ((long) time.getMinute() << 5)
+            | ((long) time.getSecond() >> 1);
+    }
+
+    /**
+     * A compressed entry waiting to be written.
+     */
+    private static final class Compressed {
+        private byte[] name;
+        private byte[] data;
+        private int method = STORED;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+    }
+
+    /**
+     * Counts the bytes written, to record entry offsets.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(final OutputStream out1) {
+            this.out = out1;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+}
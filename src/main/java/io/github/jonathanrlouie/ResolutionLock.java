@@ -0,0 +1,314 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Lock file pinning the resolved Idris compiler and runtime artifacts.
+ * Each artifact set is stored with its coordinates, its path relative to
+ * the local repository and its checksum. While every locked file is still
+ * present and unchanged, builds use the locked files without calling the
+ * artifact resolver, so they neither touch the network nor re-read
+ * repository metadata. Checked files are remembered by size and
+ * modification time in a stamp file under the build directory, so they
+ * are only hashed again when they change.
+ */
+public final class ResolutionLock {
+    /**
+     * Key of the Idris version the lock was resolved for.
+     */
+    private static final String VERSION_KEY = "idris.version";
+
+    /**
+     * Lock file, which may not exist yet.
+     */
+    private final File file;
+
+    /**
+     * File recording the size and modification time of verified files.
+     */
+    private final File stampFile;
+
+    /**
+     * Local repository the locked paths are relative to.
+     */
+    private final File localRepo;
+
+    /**
+     * Locked entries in the form written to the lock file.
+     */
+    private final Map<String, String> entries;
+
+    /**
+     * Checksums of verified files keyed by path, size and modification time.
+     */
+    private final Properties stamps;
+
+    /**
+     * Whether the entries differ from the lock file.
+     */
+    private boolean changed;
+
+    /**
+     * Whether the stamps differ from the stamp file.
+     */
+    private boolean stampsChanged;
+
+    private ResolutionLock(
+        final File file1,
+        final File stampFile1,
+        final File localRepo1,
+        final Map<String, String> entries1,
+        final boolean changed1) {
+        this.file = file1;
+        this.stampFile = stampFile1;
+        this.localRepo = localRepo1;
+        this.entries = entries1;
+        this.changed = changed1;
+        this.stamps = load(stampFile1);
+    }
+
+    /**
+     * Opens the lock file of a project, keeping its stamp file in the
+     * project's build directory.
+     * @param file Lock file.
+     * @param project Project being built.
+     * @param session Session providing the local repository.
+     * @param idrisVersion Idris version being resolved.
+     * @param update Whether to discard the locked artifacts.
+     * @return The lock.
+     */
+    public static ResolutionLock open(
+        final File file,
+        final MavenProject project,
+        final MavenSession session,
+        final String idrisVersion,
+        final boolean update) {
+        return open(file,
+            new File(project.getBuild().getDirectory(), "idris-lock.stamps"),
+            idrisVersion,
+            new File(session.getLocalRepository().getBasedir()),
+            update);
+    }
+
+    /**
+     * Opens a lock file. The lock starts out empty if the file does not
+     * exist, was resolved for another Idris version, or an update was
+     * requested.
+     * @param file Lock file.
+     * @param stampFile File recording which locked files were verified.
+     * @param idrisVersion Idris version being resolved.
+     * @param localRepo Local repository the artifacts are resolved into.
+     * @param update Whether to discard the locked artifacts.
+     * @return The lock.
+     */
+    public static ResolutionLock open(
+        final File file,
+        final File stampFile,
+        final String idrisVersion,
+        final File localRepo,
+        final boolean update) {
+        Map<String, String> entries = new TreeMap<>();
+        if (!update) {
+            Properties properties = load(file);
+            if (idrisVersion.equals(properties.getProperty(VERSION_KEY))) {
+                for (String key : properties.stringPropertyNames()) {
+                    entries.put(key, properties.getProperty(key));
+                }
+            }
+        }
+        boolean changed = entries.isEmpty();
+        entries.put(VERSION_KEY, idrisVersion);
+        return new ResolutionLock(file, stampFile, localRepo, entries, changed);
+    }
+
+    /**
+     * Gets the locked files of an artifact set, if they can be trusted.
+     * @param name Name of the artifact set, such as "idris-jvm-runtime.jar".
+     * @return The locked files in resolution order, or null if the set is
+     * not locked or any of its files is missing or changed.
+     */
+    public synchronized List<File> get(final String name) {
+        int count;
+        try {
+            count = Integer.parseInt(this.entries.get(name + ".count"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String prefix = name + "." + i + ".";
+            String path = this.entries.get(prefix + "path");
+            String sha256 = this.entries.get(prefix + "sha256");
+            if (path == null || sha256 == null) {
+                // An edited or partly merged lock is stale
+                return null;
+            }
+            File f = new File(this.localRepo, path);
+            if (!f.isFile()) {
+                return null;
+            }
+            if (!sha256.equals(this.stamps.getProperty(stamp(f)))) {
+                if (!sha256.equals(IdrisSources.sha256(f))) {
+                    return null;
+                }
+                this.stamps.setProperty(stamp(f), sha256);
+                this.stampsChanged = true;
+            }
+            files.add(f);
+        }
+        return files;
+    }
+
+    /**
+     * Locks the resolved artifacts of an artifact set.
+     * @param name Name of the artifact set, such as "idris-jvm-runtime.jar".
+     * @param artifacts Resolved artifacts in resolution order.
+     */
+    public synchronized void put(
+        final String name,
+        final Collection<Artifact> artifacts) {
+        this.entries.keySet().removeIf(k -> k.startsWith(name + "."));
+        int i = 0;
+        for (Artifact artifact : artifacts) {
+            File f = artifact.getFile();
+            String prefix = name + "." + i + ".";
+            this.entries.put(prefix + "coordinates", artifact.getGroupId()
+                + ":" + artifact.getArtifactId() + ":" + artifact.getType()
+                + ":" + artifact.getVersion());
+            this.entries.put(prefix + "path", this.localRepo.toPath()
+                .relativize(f.getAbsoluteFile().toPath())
+                .toString().replace(File.separatorChar, '/'));
+            String sha256 = IdrisSources.sha256(f);
+            this.entries.put(prefix + "sha256", sha256);
+            this.stamps.setProperty(stamp(f), sha256);
+            i++;
+        }
+        this.entries.put(name + ".count", Integer.toString(i));
+        this.changed = true;
+        this.stampsChanged = true;
+    }
+
+    /**
+     * Writes the lock file if the locked artifacts changed. Keys are
+     * sorted and no timestamp is written, so the file can be committed.
+     * Keys and values are escaped so that Properties.load reads them
+     * back unchanged.
+     * @throws IOException if the lock file could not be written.
+     */
+    public synchronized void save() throws IOException {
+        if (this.stampsChanged) {
+            this.stampFile.getParentFile().mkdirs();
+            try (OutputStream out =
+                Files.newOutputStream(this.stampFile.toPath())) {
+                this.stamps.store(out, "Verified Idris artifacts");
+            }
+            this.stampsChanged = false;
+        }
+        if (!this.changed) {
+            return;
+        }
+        File dir = this.file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(this.file.getName(), ".tmp", dir);
+        try {
+            try (Writer out = Files.newBufferedWriter(
+                tmp.toPath(), StandardCharsets.UTF_8)) {
+                out.write("# Idris artifact lock, refresh with"
+                    + " -Didris.lock.update=true\n");
+                for (Map.Entry<String, String> e : this.entries.entrySet()) {
+                    out.write(escape(e.getKey(), true) + "="
+                        + escape(e.getValue(), false) + "\n");
+                }
+            }
+            Files.move(tmp.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        this.changed = false;
+    }
+
+    /**
+     * Escapes a key or value so that Properties.load reads it back. Keys
+     * are escaped as Properties.store does; values keep ':' and '=' as
+     * they are, since only a key ends at them, so coordinates stay
+     * readable.
+     */
+    private static String escape(final String text, final boolean key) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                case '\f':
+                    escaped.append("\\f");
+                    break;
+                case ' ':
+                    escaped.append(key || i == 0 ? "\\ " : " ");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    if (key) {
+                        escaped.append('\\');
+                    }
+                    escaped.append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        escaped.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String stamp(final File f) {
+        return f.getAbsolutePath() + ":" + f.length() + ":" + f.lastModified();
+    }
+
+    private static Properties load(final File f) {
+        Properties properties = new Properties();
+        if (f.isFile()) {
+            try (InputStream in = Files.newInputStream(f.toPath())) {
+                properties.load(in);
+            } catch (IOException e) {
+                // A corrupt file only costs a fresh resolution
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An Idris program run by the run goal in batch mode, configured as a
+ * runJob element of the runJobs parameter.
+ */
+public final class RunJob {
+    /**
+     * Class name of the Idris application to execute.
+     */
+    private String mainClass;
+
+    /**
+     * Command line arguments passed to the application.
+     */
+    private List<String> args = new ArrayList<>();
+
+    /**
+     * JAR file of the application, relative to the project's base
+     * directory, or null for the run goal's appJar.
+     */
+    private File appJar;
+
+    /**
+     * Creates an empty job for Maven to configure.
+     */
+    public RunJob() { }
+
+    /**
+     * @param mainClass1 Class name of the Idris application to execute.
+     * @param args1 Command line arguments passed to the application.
+     * @param appJar1 JAR file of the application, or null for the run
+     * goal's appJar.
+     */
+    public RunJob(
+        final String mainClass1,
+        final List<String> args1,
+        final File appJar1) {
+        this.mainClass = mainClass1;
+        this.args = args1;
+        this.appJar = appJar1;
+    }
+
+    /**
+     * Gets the class name of the Idris application to execute.
+     * @return Class name of the application.
+     */
+    public String getMainClass() {
+        return this.mainClass;
+    }
+
+    /**
+     * Gets the command line arguments passed to the application.
+     * @return Arguments of the application, possibly empty.
+     */
+    public List<String> getArgs() {
+        return this.args == null ? new ArrayList<>() : this.args;
+    }
+
+    /**
+     * Gets the JAR file of the application.
+     * @return JAR file of the application, or null for the run goal's
+     * appJar.
+     */
+    public File getAppJar() {
+        return this.appJar;
+    }
+
+    @Override
+    public String toString() {
+        List<String> words = new ArrayList<>();
+        words.add(this.mainClass);
+        words.addAll(getArgs());
+        return String.join(" ", words);
+    }
+}
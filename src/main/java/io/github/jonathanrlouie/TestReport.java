@@ -0,0 +1,206 @@
+package io.github.jonathanrlouie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Locale;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Result of one Idris test program, written as a JUnit XML report in the
+ * format of the Maven Surefire plugin, so CI servers can pick it up.
+ * A test passes if its main function returns or exits with code 0.
+ */
+public final class TestReport {
+    /**
+     * Module name of the test, such as "example.AppTest".
+     */
+    private final String name;
+
+    /**
+     * Milliseconds the test took.
+     */
+    private long durationMillis;
+
+    /**
+     * Exit code of the test.
+     */
+    private int exitCode;
+
+    /**
+     * What the test threw or why it could not run, if anything.
+     */
+    private Throwable error;
+
+    /**
+     * Standard output of the test.
+     */
+    private String stdout = "";
+
+    /**
+     * Standard error of the test.
+     */
+    private String stderr = "";
+
+    /**
+     * @param name1 Module name of the test, such as "example.AppTest".
+     */
+    public TestReport(final String name1) {
+        this.name = name1;
+    }
+
+    /**
+     * Gets the module name of the test.
+     * @return Module name of the test.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Sets how long the test took.
+     * @param millis Milliseconds the test took.
+     */
+    public void setDurationMillis(final long millis) {
+        this.durationMillis = millis;
+    }
+
+    /**
+     * Sets the exit code of the test.
+     * @param exitCode1 Exit code of the test.
+     */
+    public void setExitCode(final int exitCode1) {
+        this.exitCode = exitCode1;
+    }
+
+    /**
+     * Sets what the test threw or why it could not run.
+     * @param error1 The error.
+     */
+    public void setError(final Throwable error1) {
+        this.error = error1;
+    }
+
+    /**
+     * Sets the output of the test.
+     * @param stdout1 Standard output of the test.
+     * @param stderr1 Standard error of the test.
+     */
+    public void setOutput(final String stdout1, final String stderr1) {
+        this.stdout = stdout1;
+        this.stderr = stderr1;
+    }
+
+    /**
+     * Checks whether the test exited with a non-zero code.
+     * @return Whether the test failed.
+     */
+    public boolean isFailure() {
+        return this.error == null && this.exitCode != 0;
+    }
+
+    /**
+     * Checks whether the test threw or could not run.
+     * @return Whether the test had an error.
+     */
+    public boolean isError() {
+        return this.error != null;
+    }
+
+    /**
+     * Writes the report to TEST-name.xml.
+     * @param reportsDir Directory to write the report to.
+     * @return The report file.
+     * @throws IOException if the report could not be written.
+     */
+    public File write(final File reportsDir) throws IOException {
+        reportsDir.mkdirs();
+        File file = new File(reportsDir, "TEST-" + this.name + ".xml");
+        String seconds = String.format(
+            Locale.ROOT, "%.3f", this.durationMillis / 1000.0);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance()
+                .createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("testsuite");
+            xml.writeAttribute("name", this.name);
+            xml.writeAttribute("tests", "1");
+            xml.writeAttribute("failures", isFailure() ? "1" : "0");
+            xml.writeAttribute("errors", isError() ? "1" : "0");
+            xml.writeAttribute("skipped", "0");
+            xml.writeAttribute("time", seconds);
+            xml.writeCharacters("\n  ");
+            xml.writeStartElement("testcase");
+            xml.writeAttribute("name", "main");
+            xml.writeAttribute("classname", this.name);
+            xml.writeAttribute("time", seconds);
+            if (isFailure()) {
+                xml.writeCharacters("\n    ");
+                xml.writeEmptyElement("failure");
+                xml.writeAttribute("message",
+                    "exited with code " + this.exitCode);
+                xml.writeAttribute("type", "exit");
+            } else if (isError()) {
+                xml.writeCharacters("\n    ");
+                xml.writeStartElement("error");
+                xml.writeAttribute("message", clean(
+                    String.valueOf(this.error.getMessage())));
+                xml.writeAttribute("type", this.error.getClass().getName());
+                xml.writeCharacters(clean(stackTrace(this.error)));
+                xml.writeEndElement();
+            }
+            writeOutput(xml, "system-out", this.stdout);
+            writeOutput(xml, "system-err", this.stderr);
+            xml.writeCharacters("\n  ");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeCharacters("\n");
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write test report " + file, e);
+        }
+        return file;
+    }
+
+    private static void writeOutput(
+        final XMLStreamWriter xml,
+        final String element,
+        final String text) throws XMLStreamException {
+        if (text.isEmpty()) {
+            return;
+        }
+        xml.writeCharacters("\n    ");
+        xml.writeStartElement(element);
+        xml.writeCharacters(clean(text));
+        xml.writeEndElement();
+    }
+
+    private static String stackTrace(final Throwable t) {
+        StringWriter trace = new StringWriter();
+        t.printStackTrace(new PrintWriter(trace));
+        return trace.toString();
+    }
+
+    /**
+     * Drops characters that XML 1.0 cannot represent, such as the
+     * terminal escape codes some programs print.
+     */
+    private static String clean(final String text) {
+        StringBuilder cleaned = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= ' ' || c == '\t' || c == '\n' || c == '\r') {
+                cleaned.append(c);
+            }
+        }
+        return cleaned.toString();
+    }
+}
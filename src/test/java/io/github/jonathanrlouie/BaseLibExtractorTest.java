@@ -0,0 +1,108 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class BaseLibExtractorTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File zip(String... namesAndContents) throws Exception
+    {
+        File zip = new File(tmp.getRoot(), "idris-jvm-compiler-0.5.1.zip");
+        try (OutputStream file = Files.newOutputStream(zip.toPath());
+            ZipOutputStream out = new ZipOutputStream(file))
+        {
+            for (int i = 0; i < namesAndContents.length; i += 2)
+            {
+                out.putNextEntry(new ZipEntry(namesAndContents[i]));
+                out.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    @Test
+    public void testExtractsOnlyOnce() throws Exception
+    {
+        File zip = zip(
+            "idris2-0.5.1/lib/prelude/Prelude.ttc", "prelude",
+            "idris2-0.5.1/lib/base/Data/List.ttc", "list");
+
+        assertTrue(BaseLibExtractor.extract(zip));
+        File list = new File(tmp.getRoot(), "idris2-0.5.1/lib/base/Data/List.ttc");
+        assertEquals("list", new String(Files.readAllBytes(list.toPath()), StandardCharsets.UTF_8));
+        assertTrue(BaseLibExtractor.markerFile(zip).isFile());
+
+        assertFalse(BaseLibExtractor.extract(zip));
+    }
+
+    @Test
+    public void testReextractsWhenOutputIsMissing() throws Exception
+    {
+        File zip = zip("idris2-0.5.1/lib/prelude/Prelude.ttc", "prelude");
+        assertTrue(BaseLibExtractor.extract(zip));
+
+        File prelude = new File(tmp.getRoot(), "idris2-0.5.1/lib/prelude/Prelude.ttc");
+        assertTrue(prelude.delete());
+        assertTrue(new File(tmp.getRoot(), "idris2-0.5.1/lib/prelude").delete());
+        assertTrue(new File(tmp.getRoot(), "idris2-0.5.1/lib").delete());
+        assertTrue(new File(tmp.getRoot(), "idris2-0.5.1").delete());
+
+        assertTrue(BaseLibExtractor.extract(zip));
+        assertTrue(prelude.isFile());
+    }
+
+    @Test
+    public void testHashesOnlyWhenZipChanged() throws Exception
+    {
+        File zip = zip("idris2-0.5.1/lib/prelude/Prelude.ttc", "prelude");
+        assertTrue(BaseLibExtractor.extract(zip));
+        String checksum = BaseLibExtractor.checksum(zip);
+        assertEquals(IdrisSources.sha256(zip), checksum);
+
+        // Same contents with a new modification time
+        assertTrue(zip.setLastModified(zip.lastModified() - 10000));
+        assertFalse(BaseLibExtractor.extract(zip));
+        assertEquals(checksum, BaseLibExtractor.checksum(zip));
+
+        long lastModified = zip.lastModified();
+        zip("idris2-0.5.1/lib/prelude/Prelude.ttc", "changed");
+        assertTrue(zip.setLastModified(lastModified + 20000));
+        assertTrue(BaseLibExtractor.extract(zip));
+        File prelude = new File(tmp.getRoot(), "idris2-0.5.1/lib/prelude/Prelude.ttc");
+        assertEquals("changed", new String(Files.readAllBytes(prelude.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsEntriesOutsideTargetDir() throws Exception
+    {
+        BaseLibExtractor.extract(zip("../evil.ttc", "evil"));
+    }
+
+    @Test
+    public void testListsExtractedRoots() throws Exception
+    {
+        File zip = zip(
+            "idris2-0.5.1/lib/idris2-0.5.1/prelude-0.5.1/Prelude.ttc", "prelude",
+            "idris2-0.5.1/lib/idris2-0.5.1/base-0.5.1/Data/List.ttc", "list");
+        assertTrue(BaseLibExtractor.roots(zip).isEmpty());
+
+        BaseLibExtractor.extract(zip);
+        assertEquals(Collections.singletonList(new File(tmp.getRoot(), "idris2-0.5.1")),
+            BaseLibExtractor.roots(zip));
+    }
+}
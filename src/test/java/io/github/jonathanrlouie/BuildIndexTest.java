@@ -0,0 +1,96 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class BuildIndexTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final Map<String, String> SETTINGS =
+        Collections.singletonMap("compiler", "idris-jvm-compiler:0.5.1");
+
+    private void write(File file, String contents) throws Exception
+    {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUnchangedSourcesAreUpToDate() throws Exception
+    {
+        File root = tmp.newFolder("src");
+        write(new File(root, "Main.idr"), "module Main\n");
+        List<File> roots = Collections.singletonList(root);
+
+        File indexFile = new File(tmp.getRoot(), "index.properties");
+        BuildIndex.scan(roots, SETTINGS).save(indexFile);
+
+        BuildIndex.Staleness staleness =
+            BuildIndex.scan(roots, SETTINGS).compareTo(BuildIndex.load(indexFile));
+        assertTrue(staleness.isUpToDate());
+        assertEquals(0, staleness.getStaleModules());
+    }
+
+    @Test
+    public void testModifiedModuleMakesImportersStale() throws Exception
+    {
+        File root = tmp.newFolder("src");
+        write(new File(root, "Data/Tree.idr"), "module Data.Tree\n");
+        write(new File(root, "Main.idr"), "module Main\n\nimport public Data.Tree\n");
+        write(new File(root, "Other.idr"), "module Other\n");
+        List<File> roots = Collections.singletonList(root);
+        BuildIndex previous = BuildIndex.scan(roots, SETTINGS);
+
+        write(new File(root, "Data/Tree.idr"), "module Data.Tree\n\nx : Int\n");
+        BuildIndex.Staleness staleness =
+            BuildIndex.scan(roots, SETTINGS).compareTo(previous);
+
+        assertEquals(2, staleness.getStaleModules());
+        assertTrue(staleness.getReasons().contains("Data.Tree modified"));
+        assertTrue(staleness.getReasons().contains("Main imports Data.Tree"));
+    }
+
+    @Test
+    public void testChangedSettingMakesEveryModuleStale() throws Exception
+    {
+        File root = tmp.newFolder("src");
+        write(new File(root, "Main.idr"), "module Main\n");
+        write(new File(root, "Other.idr"), "module Other\n");
+        List<File> roots = Collections.singletonList(root);
+        BuildIndex previous = BuildIndex.scan(roots, SETTINGS);
+
+        BuildIndex.Staleness staleness = BuildIndex.scan(roots,
+            Collections.singletonMap("compiler", "idris-jvm-compiler:0.6.0"))
+            .compareTo(previous);
+
+        assertFalse(staleness.isUpToDate());
+        assertEquals(2, staleness.getStaleModules());
+    }
+
+    @Test
+    public void testContentKeyIgnoresCheckoutLocation() throws Exception
+    {
+        File first = tmp.newFolder("first");
+        File second = tmp.newFolder("second");
+        for (File root : new File[] {first, second}) {
+            write(new File(root, "Data/Tree.idr"), "module Data.Tree\n");
+            write(new File(root, "Main.idr"), "module Main\n");
+        }
+        String key = BuildIndex.scan(Collections.singletonList(first), SETTINGS).getContentKey();
+
+        assertEquals(key, BuildIndex.scan(Collections.singletonList(second), SETTINGS).getContentKey());
+        write(new File(second, "Main.idr"), "module Main\n\nmain : IO ()\n");
+        assertNotEquals(key, BuildIndex.scan(Collections.singletonList(second), SETTINGS).getContentKey());
+    }
+}
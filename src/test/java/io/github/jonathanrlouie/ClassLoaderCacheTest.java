@@ -0,0 +1,74 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+public class ClassLoaderCacheTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testReleasedClassLoaderIsReused() throws Exception
+    {
+        List<File> jars = Collections.singletonList(tmp.newFile("a.jar"));
+        long hits = ClassLoaderCache.getHits();
+
+        ClassLoader first = ClassLoaderCache.get(jars);
+        ClassLoaderCache.release(first);
+        ClassLoader second = ClassLoaderCache.get(jars);
+        ClassLoaderCache.release(second);
+
+        assertSame(first, second);
+        assertEquals(hits + 1, ClassLoaderCache.getHits());
+    }
+
+    @Test
+    public void testClassLoaderInUseIsNotShared() throws Exception
+    {
+        List<File> jars = Collections.singletonList(tmp.newFile("e.jar"));
+
+        ClassLoader first = ClassLoaderCache.get(jars);
+        ClassLoader second = ClassLoaderCache.get(jars);
+        ClassLoaderCache.release(first);
+        ClassLoaderCache.release(second);
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testModifiedJarGetsNewClassLoader() throws Exception
+    {
+        File jar = tmp.newFile("b.jar");
+        List<File> jars = Collections.singletonList(jar);
+
+        ClassLoader first = ClassLoaderCache.get(jars);
+        ClassLoaderCache.release(first);
+        assertTrue(jar.setLastModified(jar.lastModified() - 60000));
+
+        assertNotSame(first, ClassLoaderCache.get(jars));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception
+    {
+        List<File> oldest = Collections.singletonList(tmp.newFile("c.jar"));
+        ClassLoader evicted = ClassLoaderCache.get(oldest);
+        ClassLoaderCache.release(evicted);
+        for (int i = 0; i < ClassLoaderCache.MAX_SIZE; i++)
+        {
+            ClassLoaderCache.release(ClassLoaderCache.get(
+                Collections.singletonList(tmp.newFile("d" + i + ".jar"))));
+        }
+
+        long misses = ClassLoaderCache.getMisses();
+        assertNotSame(evicted, ClassLoaderCache.get(oldest));
+        assertEquals(misses + 1, ClassLoaderCache.getMisses());
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.testing.MojoRule;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.repository.RepositorySystem;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClassLoaderUtilsTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public MojoRule mojo = new MojoRule();
+
+    private File repo;
+    private MavenSession session;
+    private AtomicInteger resolutions = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        repo = tmp.newFolder("repository");
+        File dir = new File(repo, "io/github/mmhelloworld/idris-jvm-compiler/0.5.1");
+        dir.mkdirs();
+        Files.write(new File(dir, "idris-jvm-compiler-0.5.1.jar").toPath(),
+            "compiler".getBytes(StandardCharsets.UTF_8));
+        try (OutputStream file = Files.newOutputStream(
+                new File(dir, "idris-jvm-compiler-0.5.1.zip").toPath());
+            ZipOutputStream out = new ZipOutputStream(file))
+        {
+            out.putNextEntry(new ZipEntry("idris2-0.5.1/lib/prelude/Prelude.ttc"));
+            out.write("prelude".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        session = mojo.newMavenSession(new MavenProject());
+    }
+
+    /**
+     * A repository system that resolves artifacts from a plain directory
+     * laid out like a Maven repository. Every resolution waits until
+     * another one is in flight, so serial resolution times out.
+     */
+    private RepositorySystem fileRepository(CyclicBarrier barrier)
+    {
+        return (RepositorySystem) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] { RepositorySystem.class },
+            (proxy, method, args) -> {
+                switch (method.getName())
+                {
+                    case "createArtifact":
+                        return new DefaultArtifact((String) args[0],
+                            (String) args[1], (String) args[2], "runtime",
+                            (String) args[3], null,
+                            new DefaultArtifactHandler((String) args[3]));
+                    case "resolve":
+                        resolutions.incrementAndGet();
+                        barrier.await(10, TimeUnit.SECONDS);
+                        Artifact artifact = ((ArtifactResolutionRequest) args[0]).getArtifact();
+                        artifact.setFile(new File(repo, artifact.getGroupId().replace('.', '/')
+                            + "/" + artifact.getArtifactId() + "/" + artifact.getVersion()
+                            + "/" + artifact.getArtifactId() + "-" + artifact.getVersion()
+                            + "." + artifact.getType()));
+                        ArtifactResolutionResult result = new ArtifactResolutionResult();
+                        result.setArtifacts(Collections.singleton(artifact));
+                        return result;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private ResolutionLock lock()
+    {
+        return ResolutionLock.open(new File(tmp.getRoot(), "idris-lock.properties"),
+            new File(tmp.getRoot(), "target/idris-lock.stamps"), "0.5.1", repo, false);
+    }
+
+    @Test
+    public void testResolvesCompilerJarAndBaseLibsConcurrently() throws Exception
+    {
+        RepositorySystem repositorySystem = fileRepository(new CyclicBarrier(2));
+        BuildMetrics metrics = new BuildMetrics("compile");
+
+        List<File> classpath = ClassLoaderUtils.getRemoteCompilerClasspath(
+            repositorySystem, session, "0.5.1", lock(), metrics);
+
+        assertEquals(1, classpath.size());
+        assertEquals("idris-jvm-compiler-0.5.1.jar", classpath.get(0).getName());
+        assertEquals(2, resolutions.get());
+        assertTrue(new File(repo, "io/github/mmhelloworld/idris-jvm-compiler/0.5.1/"
+            + "idris2-0.5.1/lib/prelude/Prelude.ttc").isFile());
+    }
+
+    @Test
+    public void testLockedArtifactsSkipTheResolver() throws Exception
+    {
+        RepositorySystem repositorySystem = fileRepository(new CyclicBarrier(2));
+        ClassLoaderUtils.getRemoteCompilerClasspath(
+            repositorySystem, session, "0.5.1", lock(), new BuildMetrics("compile"));
+
+        List<File> classpath = ClassLoaderUtils.getRemoteCompilerClasspath(
+            repositorySystem, session, "0.5.1", lock(), new BuildMetrics("compile"));
+
+        assertEquals(1, classpath.size());
+        assertEquals(2, resolutions.get());
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class ClasspathBuilderTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File jar(String name, String artifact, String version, String... entries) throws Exception
+    {
+        File jar = tmp.newFile(name);
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            if (artifact != null) {
+                out.putNextEntry(new ZipEntry("META-INF/maven/org.example/" + artifact + "/pom.properties"));
+                out.write(("groupId=org.example\nartifactId=" + artifact + "\nversion=" + version + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            }
+            for (String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(entry.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return jar;
+    }
+
+    @Test
+    public void testFirstOfEachArtifactWins() throws Exception
+    {
+        File app = jar("app.jar", null, null, "main/Main.class");
+        File lib1 = jar("lib-1.0.jar", "lib", "1.0");
+        File other = jar("other.jar", "other", "1.0");
+        File lib2 = jar("lib-2.0.jar", "lib", "2.0");
+
+        ClasspathBuilder builder = new ClasspathBuilder();
+        builder.addAll(Arrays.asList(app, lib1, other, lib2, app));
+
+        assertEquals(Arrays.asList(app, lib1, other), builder.build());
+        assertEquals(Arrays.asList(lib2, app), builder.getDuplicates());
+    }
+
+    @Test
+    public void testSameContentsAtAnotherPathIsADuplicate() throws Exception
+    {
+        File first = jar("a.jar", null, null, "a/A.class");
+        File copy = new File(tmp.newFolder("copy"), "a.jar");
+        Files.copy(first.toPath(), copy.toPath());
+        File different = jar("b.jar", null, null, "a/B.class");
+
+        ClasspathBuilder builder = new ClasspathBuilder();
+        builder.addAll(Arrays.asList(first, copy, different));
+
+        assertEquals(Arrays.asList(first, different), builder.build());
+    }
+
+    @Test
+    public void testIndexedClassLoaderFindsResourcesInClasspathOrder() throws Exception
+    {
+        File first = jar("first.jar", null, null, "META-INF/services/x", "data/a.txt");
+        File dir = tmp.newFolder("classes");
+        new File(dir, "data").mkdirs();
+        Files.write(new File(dir, "data/b.txt").toPath(), Collections.singleton("b"));
+        File second = jar("second.jar", null, null, "META-INF/services/x");
+
+        try (IndexedClassLoader loader = new IndexedClassLoader(Arrays.asList(first, dir, second))) {
+            assertEquals(2, Collections.list(loader.getResources("META-INF/services/x")).size());
+            assertTrue(loader.getResource("META-INF/services/x").toString().contains("first.jar!/"));
+            assertNotNull(loader.getResource("data/a.txt"));
+            assertNotNull(loader.getResource("data/b.txt"));
+            assertNull(loader.getResource("data/c.txt"));
+            try {
+                loader.loadClass("data.Missing");
+                fail();
+            } catch (ClassNotFoundException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -40,12 +40,36 @@ public class IdrisCompileMojoTest
 
 	String outputFile = (String) rule.getVariableValueFromObject(compileMojo, "outputFile");
 	String outputDir = (String) rule.getVariableValueFromObject(compileMojo, "outputDir");
-        File jarOutputDirectory = new File(outputDir + outputFile + "_app");
+        File jarOutputDirectory = new File(pom, outputDir + outputFile + "_app");
         assertNotNull(jarOutputDirectory);
         assertTrue(jarOutputDirectory.exists());
 
         File outputJar = new File(jarOutputDirectory, "main.jar");
         assertTrue(outputJar.exists());
     }
-}
 
+    /**
+     * Builds a library and an executable that share a directory, both
+     * importing Data.List from the base libraries.
+     * @throws Exception if any
+     */
+    @Test
+    public void testCompilePackages() throws Exception
+    {
+        File pom = new File("target/test-classes/package-to-test/");
+        assertTrue(pom.exists());
+
+        IdrisCompileMojo compileMojo = (IdrisCompileMojo) rule.lookupConfiguredMojo(pom, "compile");
+        assertNotNull(compileMojo);
+        compileMojo.execute();
+
+        File outputJar = new File(pom, "build/exec/app_app/app.jar");
+        assertTrue(outputJar.exists());
+
+        File prefix = (File) rule.getVariableValueFromObject(compileMojo, "packagePrefix");
+        File[] versions = prefix.listFiles((dir, name) -> name.startsWith("idris2-"));
+        assertNotNull(versions);
+        assertEquals(1, versions.length);
+        assertTrue(new File(versions[0], "trees").isDirectory());
+    }
+}
@@ -0,0 +1,126 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class IdrisDiagnosticsTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Records what is logged at each level.
+     */
+    private static final class RecordingLog extends SystemStreamLog
+    {
+        final List<String> lines = new ArrayList<>();
+
+        @Override
+        public void info(CharSequence content)
+        {
+            lines.add("info " + content);
+        }
+
+        @Override
+        public void warn(CharSequence content)
+        {
+            lines.add("warn " + content);
+        }
+
+        @Override
+        public void error(CharSequence content)
+        {
+            lines.add("error " + content);
+        }
+    }
+
+    private IdrisDiagnostics diagnostics(RecordingLog log, int maxErrors, String... lines)
+    {
+        IdrisDiagnostics diagnostics = new IdrisDiagnostics(
+            log, Collections.singletonList(tmp.getRoot()), maxErrors);
+        for (String line : lines) {
+            diagnostics.acceptOutput(line);
+        }
+        return diagnostics;
+    }
+
+    @Test
+    public void testReportsErrorsAtTheirLocation() throws Exception
+    {
+        File main = tmp.newFile("Main.idr");
+        RecordingLog log = new RecordingLog();
+        IdrisDiagnostics diagnostics = diagnostics(log, 0,
+            "1/1: Building Main (Main.idr)",
+            "Error: While processing right hand side of main. Undefined name foo.",
+            "",
+            "Main:3:8--3:11",
+            " 3 | main = foo",
+            "            ^^^",
+            "");
+        diagnostics.flush();
+
+        assertEquals(1, diagnostics.getErrorCount());
+        IdrisDiagnostics.Diagnostic error = diagnostics.getFirstError();
+        assertEquals(main.getAbsoluteFile(), error.getFile());
+        assertEquals(3, error.getLine());
+        assertEquals(8, error.getColumn());
+        assertEquals("info 1/1: Building Main (Main.idr)", log.lines.get(0));
+        assertEquals("error " + main.getAbsolutePath()
+            + ":[3,8] While processing right hand side of main. Undefined name foo.",
+            log.lines.get(1));
+        assertEquals("info  3 | main = foo", log.lines.get(2));
+    }
+
+    @Test
+    public void testReadsMultiLineMessagesAndLocationsFirst() throws Exception
+    {
+        RecordingLog log = new RecordingLog();
+        IdrisDiagnostics diagnostics = diagnostics(log, 0,
+            "Error: Couldn't parse any alternatives:",
+            "1: Expected 'case', 'if', 'do'.",
+            "",
+            "src/Lib.idr:7:1--7:2",
+            "Warning: Unreachable clause.",
+            "Lib.idr:9:3--9:9:Undefined name bar",
+            "Error: No location");
+        diagnostics.flush();
+
+        List<IdrisDiagnostics.Diagnostic> all = diagnostics.getDiagnostics();
+        assertEquals(4, all.size());
+        assertEquals("Couldn't parse any alternatives:\n1: Expected 'case', 'if', 'do'.",
+            all.get(0).getMessage());
+        assertEquals(new File("src/Lib.idr"), all.get(0).getFile());
+        assertFalse(all.get(1).isError());
+        assertEquals("Unreachable clause.", all.get(1).getMessage());
+        assertNull(all.get(1).getFile());
+        assertEquals("Undefined name bar", all.get(2).getMessage());
+        assertEquals(9, all.get(2).getLine());
+        assertEquals(3, all.get(2).getColumn());
+        assertNull(all.get(3).getFile());
+        assertEquals(3, diagnostics.getErrorCount());
+        assertEquals("warn Unreachable clause.", log.lines.get(1));
+    }
+
+    @Test
+    public void testReachesErrorLimit() throws Exception
+    {
+        RecordingLog log = new RecordingLog();
+        IdrisDiagnostics diagnostics = diagnostics(log, 2,
+            "Error: First.",
+            "Main:1:1--1:2");
+        assertFalse(diagnostics.isLimitReached());
+        diagnostics.acceptError("Error: Second.");
+        diagnostics.acceptError("Main:2:1--2:2");
+        assertTrue(diagnostics.isLimitReached());
+        assertFalse(diagnostics(log, 0, "Error: A.", "Main:1:1--1:2",
+            "Error: B.", "Main:2:1--2:2").isLimitReached());
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IdrisPackageTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File write(File file, String contents) throws Exception
+    {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private IdrisPackage pkg(String name, String depends, String module, String source) throws Exception
+    {
+        File dir = new File(tmp.getRoot(), name);
+        write(new File(dir, "src/" + module.replace('.', '/') + ".idr"), source);
+        return IdrisPackage.parse(write(new File(dir, name + ".ipkg"),
+            "package " + name + "\nsourcedir = \"src\"\ndepends = " + depends + "\nmodules = " + module + "\n"));
+    }
+
+    private List<List<String>> names(List<List<IdrisPackage>> waves)
+    {
+        List<List<String>> names = new ArrayList<>();
+        for (List<IdrisPackage> wave : waves) {
+            List<String> wnames = new ArrayList<>();
+            for (IdrisPackage pkg : wave) {
+                wnames.add(pkg.getName());
+            }
+            names.add(wnames);
+        }
+        return names;
+    }
+
+    @Test
+    public void testParsesPackageFile() throws Exception
+    {
+        File file = write(new File(tmp.getRoot(), "app/app.ipkg"),
+            "-- An example package\n"
+            + "package app\n"
+            + "version = 0.1.0\n"
+            + "authors = \"Someone -- not a comment\"\n"
+            + "depends = base\n"
+            + "        , contrib >= 0.5 -- pinned\n"
+            + "        , util\n"
+            + "\n"
+            + "modules = App.Main,\n"
+            + "          App.Data.Tree\n"
+            + "sourcedir = \"src\"\n"
+            + "main = App.Main\n"
+            + "executable = app\n");
+
+        IdrisPackage pkg = IdrisPackage.parse(file);
+
+        assertEquals("app", pkg.getName());
+        assertEquals(Arrays.asList("base", "contrib", "util"), pkg.getDepends());
+        assertEquals(Arrays.asList("App.Main", "App.Data.Tree"), pkg.getModules());
+        assertEquals(new File(tmp.getRoot(), "app/src"), pkg.getSourceDir());
+        assertEquals("app", pkg.getExecutable());
+    }
+
+    @Test
+    public void testLibraryHasNoExecutable() throws Exception
+    {
+        File file = write(new File(tmp.getRoot(), "lib.ipkg"), "package lib\nmodules = Lib\n");
+
+        IdrisPackage pkg = IdrisPackage.parse(file);
+
+        assertNull(pkg.getExecutable());
+        assertTrue(pkg.getDepends().isEmpty());
+        assertEquals(tmp.getRoot(), pkg.getSourceDir());
+    }
+
+    @Test
+    public void testPackagesBuildInWaves() throws Exception
+    {
+        IdrisPackage util = pkg("util", "base", "Util", "module Util\n");
+        IdrisPackage json = pkg("json", "base, util", "Json", "module Json\n");
+        IdrisPackage http = pkg("http", "base", "Http", "module Http\n\nimport Util\n");
+        IdrisPackage app = pkg("app", "json, http", "Main", "module Main\n");
+
+        PackageGraph graph = new PackageGraph(Arrays.asList(app, http, json, util));
+
+        assertTrue(graph.getDependencies("http").contains("util"));
+        assertEquals(Arrays.asList(
+            Arrays.asList("util"),
+            Arrays.asList("http", "json"),
+            Arrays.asList("app")), names(graph.waves()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCycleIsRejected() throws Exception
+    {
+        IdrisPackage a = pkg("a", "b", "A", "module A\n");
+        IdrisPackage b = pkg("b", "base", "B", "module B\n\nimport A\n");
+
+        new PackageGraph(Arrays.asList(a, b)).waves();
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.jonathanrlouie;
+
+
+import org.apache.maven.plugin.testing.MojoRule;
+
+import org.junit.Rule;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+
+public class IdrisTestMojoTest
+{
+    @Rule
+    public MojoRule rule = new MojoRule();
+
+    /**
+     * Runs a test that imports a module of the project's main sources.
+     * @throws Exception if any
+     */
+    @Test
+    public void testRunsTestImportingMainModule() throws Exception
+    {
+        File pom = new File("target/test-classes/test-project-to-test/");
+        assertTrue(pom.exists());
+
+        IdrisTestMojo testMojo = (IdrisTestMojo) rule.lookupConfiguredMojo(pom, "test");
+        assertNotNull(testMojo);
+        testMojo.execute();
+
+        File reports = (File) rule.getVariableValueFromObject(testMojo, "reportsDirectory");
+        assertTrue(new File(reports, "TEST-TreesTest.xml").isFile());
+    }
+}
@@ -0,0 +1,197 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+public class JavaCommandTest
+{
+    /**
+     * Prints its first argument, then exits with its second.
+     */
+    public static final class Exit
+    {
+        public static void main(String[] args)
+        {
+            System.out.println("exiting " + args[0]);
+            System.exit(Integer.parseInt(args[1]));
+        }
+    }
+
+    /**
+     * Prints its argument on many lines once another Echo is running too.
+     */
+    public static final class Echo
+    {
+        private static final CyclicBarrier BOTH = new CyclicBarrier(2);
+
+        public static void main(String[] args) throws Exception
+        {
+            BOTH.await(10, TimeUnit.SECONDS);
+            for (int i = 0; i < 100; i++) {
+                System.out.println(args[0] + " " + i);
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Sleeps until interrupted.
+     */
+    public static final class Sleep
+    {
+        public static void main(String[] args) throws Exception
+        {
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    /**
+     * Loads the programs above apart from the test, as the compiler and
+     * applications are, so they can also run in a child JVM.
+     */
+    private URLClassLoader programs;
+
+    private PrintStream out;
+
+    @Before
+    @SuppressWarnings({"deprecation", "removal"})
+    public void setUp() throws Exception
+    {
+        assertNull(System.getSecurityManager());
+        out = System.out;
+        URL classes = new File("target/test-classes").getAbsoluteFile().toURI().toURL();
+        programs = new URLClassLoader(new URL[] {classes}, null);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        programs.close();
+    }
+
+    /**
+     * Checks that runs left the JVM's security manager and standard
+     * streams as they found them.
+     */
+    @SuppressWarnings({"deprecation", "removal"})
+    private void assertRestored()
+    {
+        assertNull(System.getSecurityManager());
+        assertSame(out, System.out);
+    }
+
+    private JavaCommand command(List<String> lines, String... args)
+    {
+        JavaCommand cmd = new JavaCommand();
+        cmd.addArgs(args);
+        Consumer<CharSequence> add = line -> lines.add(line.toString());
+        cmd.redirectLines(add, add);
+        return cmd;
+    }
+
+    @Test
+    public void testExitBecomesExitCode() throws Exception
+    {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        int exitCode = command(lines, "now", "7")
+            .runIsolated(Exit.class.getName(), programs, new SystemStreamLog());
+
+        assertEquals(7, exitCode);
+        assertEquals(Collections.singletonList("exiting now"), lines);
+        assertRestored();
+    }
+
+    @Test
+    public void testCapturesOutputPerRun() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<List<String>> outputs = new ArrayList<>();
+            List<Future<Integer>> runs = new ArrayList<>();
+            for (String tag : new String[] {"a", "b"}) {
+                List<String> lines = Collections.synchronizedList(new ArrayList<>());
+                outputs.add(lines);
+                JavaCommand cmd = command(lines, tag);
+                runs.add(executor.submit(() ->
+                    cmd.runIsolated(Echo.class.getName(), programs, new SystemStreamLog())));
+            }
+            for (Future<Integer> run : runs) {
+                assertEquals(0, (int) run.get(30, TimeUnit.SECONDS));
+            }
+
+            for (int i = 0; i < 2; i++) {
+                List<String> lines = outputs.get(i);
+                assertEquals(100, lines.size());
+                String tag = i == 0 ? "a " : "b ";
+                for (String line : lines) {
+                    assertTrue(line, line.startsWith(tag));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertRestored();
+    }
+
+    @Test
+    public void testReportsTimeoutAndRestores() throws Exception
+    {
+        JavaCommand cmd = command(new ArrayList<>());
+        cmd.setTimeout(200);
+        try {
+            cmd.runIsolated(Sleep.class.getName(), programs, new SystemStreamLog());
+            fail("Expected a timeout");
+        } catch (TimeoutException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("did not finish within 200ms"));
+            assertFalse(e.getMessage(), e.getMessage().contains("still running"));
+        }
+        assertRestored();
+    }
+
+    @Test
+    @SuppressWarnings({"deprecation", "removal"})
+    public void testRunsInChildJvmWhenExitCannotBeIntercepted() throws Exception
+    {
+        // Someone else's security manager leaves no way to intercept
+        // System.exit, as does a JVM that disallows security managers
+        SecurityManager foreign = new SecurityManager()
+        {
+            @Override
+            public void checkPermission(Permission perm) { }
+        };
+        if (ExitInterceptor.isSupported()) {
+            System.setSecurityManager(foreign);
+        }
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        int exitCode;
+        try {
+            exitCode = command(lines, "forked", "5")
+                .runIsolated(Exit.class.getName(), programs, new SystemStreamLog());
+        } finally {
+            System.setSecurityManager(null);
+        }
+
+        assertEquals(5, exitCode);
+        assertTrue(lines.toString(), lines.contains("exiting forked"));
+        assertRestored();
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MemoryGuardTest
+{
+    @Test
+    public void testRecordsPeaksWithinLimits() throws Exception
+    {
+        MemoryGuard guard = MemoryGuard.start(100, 0);
+        byte[][] garbage = new byte[16][];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = new byte[1024 * 1024];
+        }
+        guard.close();
+
+        assertFalse(guard.getTripReason(), guard.isTripped());
+        assertTrue(guard.getPeakHeap() >= garbage.length * 1024L * 1024L);
+        assertTrue(guard.getPeakMetaspace() > 0);
+        assertTrue(guard.summary(), guard.summary().startsWith("peak heap "));
+    }
+
+    @Test
+    public void testTripsOnMetaspaceLimit() throws Exception
+    {
+        try (MemoryGuard guard = MemoryGuard.start(100, 1)) {
+            assertTrue(guard.isTripped());
+            assertTrue(guard.getTripReason(), guard.getTripReason().startsWith("metaspace reached"));
+        }
+    }
+
+    @Test
+    public void testTripsOnHeapLimit() throws Exception
+    {
+        // No heap holds more than its maximum, so only the samples below trip
+        long limit = Runtime.getRuntime().maxMemory();
+        try (MemoryGuard guard = new MemoryGuard(limit, 0)) {
+            assertFalse(guard.getTripReason(), guard.isTripped());
+            guard.record(limit, limit, 0);
+            assertFalse(guard.isTripped());
+            guard.record(limit + 1, limit + 1, 0);
+            assertTrue(guard.isTripped());
+            assertTrue(guard.getTripReason(), guard.getTripReason().startsWith("heap in use"));
+        }
+    }
+}
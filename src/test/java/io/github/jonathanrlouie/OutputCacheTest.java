@@ -0,0 +1,98 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class OutputCacheTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String KEY_A = IdrisSources.sha256("a");
+    private static final String KEY_B = IdrisSources.sha256("b");
+
+    private void write(File file, String contents) throws Exception
+    {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(File file) throws Exception
+    {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRestoresStoredOutput() throws Exception
+    {
+        OutputCache cache = new OutputCache(tmp.newFolder("cache"), Long.MAX_VALUE);
+        File output = tmp.newFolder("main_app");
+        write(new File(output, "main.jar"), "jar");
+        write(new File(output, "lib/extra.txt"), "extra");
+
+        assertFalse(cache.restore(KEY_A, output));
+        cache.store(KEY_A, output);
+
+        File restored = new File(tmp.getRoot(), "other/main_app");
+        write(new File(restored, "stale.txt"), "stale");
+        assertTrue(cache.restore(KEY_A, restored));
+        assertEquals("jar", read(new File(restored, "main.jar")));
+        assertEquals("extra", read(new File(restored, "lib/extra.txt")));
+        assertFalse(new File(restored, "stale.txt").exists());
+        assertTrue(cache.stats(), cache.stats().contains("1 hits, 1 misses"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedOutput() throws Exception
+    {
+        File dir = tmp.newFolder("cache");
+        File output = tmp.newFolder("main_app");
+        write(new File(output, "main.jar"), "jar");
+        OutputCache unlimited = new OutputCache(dir, Long.MAX_VALUE);
+        unlimited.store(KEY_A, output);
+        unlimited.store(KEY_B, output);
+        File entryA = new File(dir, KEY_A.substring(0, 2) + "/" + KEY_A + ".zip");
+        File entryB = new File(dir, KEY_B.substring(0, 2) + "/" + KEY_B + ".zip");
+        entryA.setLastModified(1000000000000L);
+        entryB.setLastModified(1000000001000L);
+
+        // Using A makes B the least recently used entry
+        assertTrue(unlimited.restore(KEY_A, tmp.newFolder("restored")));
+        OutputCache limited = new OutputCache(dir, entryA.length() * 2);
+        limited.store(IdrisSources.sha256("c"), output);
+
+        assertTrue(entryA.isFile());
+        assertFalse(entryB.isFile());
+        assertTrue(limited.stats(), limited.stats().contains("1 evicted"));
+    }
+
+    @Test
+    public void testDeletesCorruptEntry() throws Exception
+    {
+        File dir = tmp.newFolder("cache");
+        OutputCache cache = new OutputCache(dir, Long.MAX_VALUE);
+        File output = tmp.newFolder("main_app");
+        write(new File(output, "main.jar"), "jar");
+        cache.store(KEY_A, output);
+        File entry = new File(dir, KEY_A.substring(0, 2) + "/" + KEY_A + ".zip");
+        byte[] zip = Files.readAllBytes(entry.toPath());
+        Files.write(entry.toPath(), Arrays.copyOf(zip, zip.length / 2));
+
+        try {
+            cache.restore(KEY_A, output);
+            fail("Restored a partly written entry");
+        } catch (IOException e) {
+            assertFalse(entry.exists());
+            assertFalse(new File(output, "main.jar").exists());
+        }
+        assertFalse(cache.restore(KEY_A, output));
+    }
+}
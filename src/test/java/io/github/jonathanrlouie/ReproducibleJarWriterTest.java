@@ -0,0 +1,106 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+
+public class ReproducibleJarWriterTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static ReproducibleJarWriter.Source text(String content)
+    {
+        return () -> new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File write(List<String> names, int threads) throws Exception
+    {
+        ReproducibleJarWriter writer = new ReproducibleJarWriter();
+        writer.setThreads(threads);
+        writer.getManifestAttributes().put(Attributes.Name.MAIN_CLASS, "main.Main");
+        for (String name : names) {
+            writer.add(name, text("contents of " + name));
+        }
+        File jar = tmp.newFile();
+        writer.write(jar);
+        return jar;
+    }
+
+    @Test
+    public void testSameContentsGiveSameBytes() throws Exception
+    {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            names.add("main/C" + i + ".class");
+        }
+        File first = write(names, 1);
+        List<String> reversed = new ArrayList<>(names);
+        Collections.reverse(reversed);
+        File second = write(reversed, 4);
+
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+    }
+
+    @Test
+    public void testJarIsReadable() throws Exception
+    {
+        File jar = write(Arrays.asList("main/Main.class", "a/A.class"), 2);
+
+        try (JarInputStream in = new JarInputStream(new FileInputStream(jar))) {
+            assertEquals("main.Main", in.getManifest().getMainAttributes().getValue(Attributes.Name.MAIN_CLASS));
+            assertEquals("a/A.class", in.getNextJarEntry().getName());
+            assertEquals("main/Main.class", in.getNextJarEntry().getName());
+            assertNull(in.getNextJarEntry());
+        }
+        try (JarFile file = new JarFile(jar)) {
+            JarEntry entry = file.getJarEntry("main/Main.class");
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            byte[] contents = new byte[(int) entry.getSize()];
+            new DataInputStream(file.getInputStream(entry)).readFully(contents);
+            assertEquals("contents of main/Main.class", new String(contents, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testStoresCompressedEntriesAndSetsTimestamp() throws Exception
+    {
+        ReproducibleJarWriter writer = new ReproducibleJarWriter();
+        writer.setTimestamp(ZonedDateTime.of(2024, 5, 6, 7, 8, 10, 0, ZoneOffset.UTC));
+        writer.add("lib/nested.jar", text("already compressed"));
+        writer.add("main/Main.class", text("class"));
+        assertFalse(writer.add("main/Main.class", text("duplicate")));
+        File jar = tmp.newFile();
+        writer.write(jar);
+
+        try (JarFile file = new JarFile(jar)) {
+            assertEquals(ZipEntry.STORED, file.getEntry("lib/nested.jar").getMethod());
+            ZipEntry entry = file.getEntry("main/Main.class");
+            assertEquals(5, entry.getSize());
+            Calendar time = Calendar.getInstance();
+            time.setTimeInMillis(entry.getTime());
+            assertEquals(2024, time.get(Calendar.YEAR));
+            assertEquals(10, time.get(Calendar.SECOND));
+        }
+    }
+}
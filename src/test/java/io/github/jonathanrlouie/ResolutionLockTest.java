@@ -0,0 +1,124 @@
+package io.github.jonathanrlouie;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ResolutionLockTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File repo;
+    private File lockFile;
+    private File stampFile;
+    private File jar;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        repo = tmp.newFolder("repository");
+        lockFile = new File(tmp.getRoot(), "idris-lock.properties");
+        stampFile = new File(tmp.getRoot(), "target/idris-lock.stamps");
+        File dir = new File(repo, "io/github/mmhelloworld/idris-jvm-runtime/0.5.1");
+        dir.mkdirs();
+        jar = new File(dir, "idris-jvm-runtime-0.5.1.jar");
+        Files.write(jar.toPath(), "runtime".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Artifact artifact(File file)
+    {
+        Artifact artifact = new DefaultArtifact("io.github.mmhelloworld",
+            "idris-jvm-runtime", "0.5.1", "runtime", "jar", null,
+            new DefaultArtifactHandler("jar"));
+        artifact.setFile(file);
+        return artifact;
+    }
+
+    private ResolutionLock open(String version, boolean update)
+    {
+        return ResolutionLock.open(lockFile, stampFile, version, repo, update);
+    }
+
+    @Test
+    public void testLockedFilesAreReusedAfterSaving() throws Exception
+    {
+        ResolutionLock lock = open("0.5.1", false);
+        assertNull(lock.get("idris-jvm-runtime.jar"));
+        lock.put("idris-jvm-runtime.jar", Collections.singletonList(artifact(jar)));
+        lock.save();
+
+        String text = new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text.contains("idris-jvm-runtime.jar.0.path=io/github/mmhelloworld/idris-jvm-runtime/0.5.1/idris-jvm-runtime-0.5.1.jar"));
+        assertTrue(text.contains("idris-jvm-runtime.jar.0.coordinates=io.github.mmhelloworld:idris-jvm-runtime:jar:0.5.1"));
+        assertTrue(stampFile.isFile());
+
+        assertEquals(Arrays.asList(jar), open("0.5.1", false).get("idris-jvm-runtime.jar"));
+    }
+
+    @Test
+    public void testChangedFileIsNotTrusted() throws Exception
+    {
+        ResolutionLock lock = open("0.5.1", false);
+        lock.put("idris-jvm-runtime.jar", Collections.singletonList(artifact(jar)));
+        lock.save();
+
+        Files.write(jar.toPath(), "tampered".getBytes(StandardCharsets.UTF_8));
+        assertNull(open("0.5.1", false).get("idris-jvm-runtime.jar"));
+
+        assertTrue(jar.delete());
+        assertNull(open("0.5.1", false).get("idris-jvm-runtime.jar"));
+    }
+
+    @Test
+    public void testVersionChangeOrUpdateDiscardsLock() throws Exception
+    {
+        ResolutionLock lock = open("0.5.1", false);
+        lock.put("idris-jvm-runtime.jar", Collections.singletonList(artifact(jar)));
+        lock.save();
+
+        assertNull(open("0.6.0", false).get("idris-jvm-runtime.jar"));
+        assertNull(open("0.5.1", true).get("idris-jvm-runtime.jar"));
+        assertNotNull(open("0.5.1", false).get("idris-jvm-runtime.jar"));
+    }
+
+    @Test
+    public void testPathsWithSpecialCharactersSurviveSaving() throws Exception
+    {
+        File dir = new File(repo, "odd dir/a=b:c\\d");
+        dir.mkdirs();
+        File odd = new File(dir, "run#time !x.jar");
+        Files.write(odd.toPath(), "runtime".getBytes(StandardCharsets.UTF_8));
+        ResolutionLock lock = open("0.5.1", false);
+        lock.put("idris-jvm-runtime.jar", Collections.singletonList(artifact(odd)));
+        lock.save();
+
+        String text = new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text.contains("path=odd dir/a=b:c\\\\d/run#time !x.jar"));
+        assertEquals(Arrays.asList(odd), open("0.5.1", false).get("idris-jvm-runtime.jar"));
+    }
+
+    @Test
+    public void testEntryWithoutPathIsStale() throws Exception
+    {
+        ResolutionLock lock = open("0.5.1", false);
+        lock.put("idris-jvm-runtime.jar", Collections.singletonList(artifact(jar)));
+        lock.save();
+
+        String text = new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8);
+        Files.write(lockFile.toPath(), text.replaceAll("(?m)^.*\\.path=.*$", "")
+            .getBytes(StandardCharsets.UTF_8));
+        assertNull(open("0.5.1", false).get("idris-jvm-runtime.jar"));
+    }
+}
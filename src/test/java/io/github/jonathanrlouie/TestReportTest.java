@@ -0,0 +1,67 @@
+package io.github.jonathanrlouie;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+public class TestReportTest
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Element testcase(File report) throws Exception
+    {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(report);
+        return (Element) doc.getDocumentElement().getElementsByTagName("testcase").item(0);
+    }
+
+    @Test
+    public void testPassingTest() throws Exception
+    {
+        TestReport report = new TestReport("example.AppTest");
+        report.setDurationMillis(1234);
+        report.setOutput("ok <done> & \u001b[32mgreen\u001b[0m\n", "");
+
+        File file = report.write(tmp.getRoot());
+        assertEquals("TEST-example.AppTest.xml", file.getName());
+        Element testcase = testcase(file);
+        assertEquals("example.AppTest", testcase.getAttribute("classname"));
+        assertEquals("1.234", testcase.getAttribute("time"));
+        assertEquals(0, testcase.getElementsByTagName("failure").getLength());
+        assertEquals("ok <done> & [32mgreen[0m\n",
+            testcase.getElementsByTagName("system-out").item(0).getTextContent());
+        assertEquals(0, testcase.getElementsByTagName("system-err").getLength());
+    }
+
+    @Test
+    public void testNonZeroExitIsAFailure() throws Exception
+    {
+        TestReport report = new TestReport("AppTest");
+        report.setExitCode(3);
+
+        assertTrue(report.isFailure());
+        Element failure = (Element) testcase(report.write(tmp.getRoot()))
+            .getElementsByTagName("failure").item(0);
+        assertEquals("exited with code 3", failure.getAttribute("message"));
+    }
+
+    @Test
+    public void testThrowingTestIsAnError() throws Exception
+    {
+        TestReport report = new TestReport("AppTest");
+        report.setError(new IllegalStateException("boom"));
+
+        assertTrue(report.isError());
+        assertFalse(report.isFailure());
+        Element error = (Element) testcase(report.write(tmp.getRoot()))
+            .getElementsByTagName("error").item(0);
+        assertEquals("java.lang.IllegalStateException", error.getAttribute("type"));
+        assertTrue(error.getTextContent().contains("boom"));
+    }
+}